@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.symat;
+
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Table;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rows / sec of CopyRow: fetching a row from a stub table, and building the Puts (rebuilding each cell with the
+ * new timestamp when overriding), sent to a stub mutator.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CopyRowBenchmark {
+
+    private static final int ROWS = 1024;
+
+    @Param({"false", "true"})
+    public boolean override;
+
+    @Param({"10", "1000"})
+    public int cellsPerRow;
+
+    private byte[][] rowKeys;
+    private CopyRow.RowCopier copier;
+    private int next;
+    private long mutations;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        rowKeys = Stubs.rowKeys(ROWS);
+        Table table = Stubs.table(Stubs.row(rowKeys[0], cellsPerRow, 100), rowKey -> false, new Result[0]);
+        copier = new CopyRow.RowCopier(table, Stubs.mutator(mutation -> mutations++), override,
+                System.currentTimeMillis(), 10000, 2 * 1024 * 1024, new CopyRow.CopyStats());
+    }
+
+    @Benchmark
+    public void copyRow() throws IOException {
+        copier.copyRow(rowKeys[next++ & (ROWS - 1)]);
+    }
+}
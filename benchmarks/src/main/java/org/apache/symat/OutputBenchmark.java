@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.symat;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting the output of the tools: the failure message of an exception, the output line of a failed row,
+ * and recording the latency stats of a verified row.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OutputBenchmark {
+
+    private byte[] rowKey;
+    private Exception failure;
+    private final Text key = new Text();
+    private final Text value = new Text();
+    private LatencyStats stats;
+    private long latency;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        rowKey = Stubs.rowKeys(1)[0];
+        failure = Stubs.failure(rowKey);
+        stats = new LatencyStats(10);
+    }
+
+    @Benchmark
+    public String failureMessage() {
+        return RowVerifier.failureMessage(failure);
+    }
+
+    @Benchmark
+    public Text failureLine() {
+        key.set(Bytes.toStringBinary(rowKey));
+        value.set(RowVerifier.failureMessage(failure));
+        return value;
+    }
+
+    @Benchmark
+    public long recordStats() {
+        // growing latencies, so the list of the slowest rows is updated too
+        stats.record(rowKey, latency += 1000, 10, 1000);
+        return stats.getRows();
+    }
+}
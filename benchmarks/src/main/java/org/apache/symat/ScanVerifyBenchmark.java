@@ -0,0 +1,86 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.symat;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rows / sec of the scan-verify mode of CorruptRowsMR, using a stub table returning the same rows for each scan.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScanVerifyBenchmark {
+
+    private static final int ROWS = 1024;
+
+    @Param({"10", "1000"})
+    public int cellsPerRow;
+
+    private RowVerifier verifier;
+    private long failedRows;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        byte[][] rowKeys = Stubs.rowKeys(ROWS);
+        Result[] rows = new Result[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            rows[i] = Stubs.row(rowKeys[i], cellsPerRow, 100);
+        }
+        Table table = Stubs.table(rows[0], rowKey -> false, rows);
+        JobConf conf = new JobConf(false);
+        conf.set("corruptRowsMR.table", Stubs.TABLE_NAME.getNameAsString());
+        verifier = new RowVerifier(conf, Stubs.connection(table), null, (key, value) -> failedRows++,
+                Reporter.NULL);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        verifier.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void scanVerify() throws IOException {
+        verifier.scanVerify(HConstants.EMPTY_START_ROW, HConstants.EMPTY_END_ROW);
+    }
+}
@@ -0,0 +1,346 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.symat;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.client.TableBuilder;
+import org.apache.hadoop.hbase.client.TableDescriptor;
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
+import org.apache.hadoop.hbase.io.hfile.CorruptHFileException;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * In-memory stubs of the HBase client interfaces, so the hot paths of the tools can be measured without a cluster.
+ * The stubs are plain classes (a dynamic proxy would allocate an argument array and box the results on each call,
+ * which would show up in the allocation rate of the benchmarks). Only the methods used by the tools are
+ * implemented, all the other methods throw UnsupportedOperationException.
+ */
+final class Stubs {
+
+    static final TableName TABLE_NAME = TableName.valueOf("bench");
+    static final byte[] FAMILY = Bytes.toBytes("cf");
+
+    private Stubs() {
+    }
+
+    /**
+     * row keys like row-0000000042, sorted
+     */
+    static byte[][] rowKeys(int rows) {
+        byte[][] keys = new byte[rows][];
+        for (int i = 0; i < rows; i++) {
+            keys[i] = Bytes.toBytes(String.format("row-%010d", i));
+        }
+        return keys;
+    }
+
+    /**
+     * @return a row with the given number of cells, each having a value of the given size
+     */
+    static Result row(byte[] rowKey, int cells, int valueSize) {
+        List<Cell> list = new ArrayList<>(cells);
+        byte[] value = new byte[valueSize];
+        Arrays.fill(value, (byte) 'v');
+        for (int i = 0; i < cells; i++) {
+            list.add(new KeyValue(rowKey, FAMILY, Bytes.toBytes(String.format("q%06d", i)), HConstants.LATEST_TIMESTAMP - 1,
+                    KeyValue.Type.Put, value));
+        }
+        return Result.create(list);
+    }
+
+    /**
+     * the exception thrown for the failing rows, with a multi-line message like the real ones
+     */
+    static CorruptHFileException failure(byte[] rowKey) {
+        return new CorruptHFileException("Problem reading HFile Trailer from file "
+                + "hdfs://nn:8020/hbase/data/default/bench/0123456789abcdef/cf/0123456789abcdef0123456789abcdef"
+                + " for row " + Bytes.toStringBinary(rowKey) + "\n\tat org.apache.hadoop.hbase.io.hfile.HFile.openReader"
+                + "\n\tat org.apache.hadoop.hbase.regionserver.StoreFileReader.<init>");
+    }
+
+    /**
+     * Table returning the same result for each GET, except for the rows matched by failingRows, where the GET
+     * (and the multi-get containing the row) throws an exception. The scanners return the given results.
+     */
+    static Table table(Result result, RowPredicate failingRows, Result[] scanResults) {
+        return new StubTable(result, failingRows, scanResults);
+    }
+
+    static ResultScanner scanner(Result[] results) {
+        return new StubScanner(results);
+    }
+
+    static Connection connection(Table table) {
+        return new StubConnection(table);
+    }
+
+    /**
+     * mutator passing the mutations to the consumer
+     */
+    static BufferedMutator mutator(MutationConsumer consumer) {
+        return new StubMutator(consumer);
+    }
+
+    private static UnsupportedOperationException unsupported(String method) {
+        return new UnsupportedOperationException(method + " is not supported by the stub");
+    }
+
+    private static final class StubTable implements Table {
+        private final Result result;
+        private final RowPredicate failingRows;
+        private final Result[] scanResults;
+
+        StubTable(Result result, RowPredicate failingRows, Result[] scanResults) {
+            this.result = result;
+            this.failingRows = failingRows;
+            this.scanResults = scanResults;
+        }
+
+        @Override
+        public Result get(Get get) throws IOException {
+            if (failingRows.test(get.getRow())) {
+                throw failure(get.getRow());
+            }
+            return result;
+        }
+
+        @Override
+        public Result[] get(List<Get> gets) throws IOException {
+            Result[] results = new Result[gets.size()];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = get(gets.get(i));
+            }
+            return results;
+        }
+
+        @Override
+        public ResultScanner getScanner(Scan scan) {
+            return new StubScanner(scanResults);
+        }
+
+        @Override
+        public TableName getName() {
+            return TABLE_NAME;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public Configuration getConfiguration() {
+            throw unsupported("getConfiguration");
+        }
+
+        @Override
+        @Deprecated
+        public HTableDescriptor getTableDescriptor() {
+            throw unsupported("getTableDescriptor");
+        }
+
+        @Override
+        public TableDescriptor getDescriptor() {
+            throw unsupported("getDescriptor");
+        }
+
+        @Override
+        public RegionLocator getRegionLocator() {
+            throw unsupported("getRegionLocator");
+        }
+    }
+
+    private static final class StubScanner implements ResultScanner {
+        private final Result[] results;
+        private int next;
+
+        StubScanner(Result[] results) {
+            this.results = results;
+        }
+
+        @Override
+        public Result next() {
+            return next < results.length ? results[next++] : null;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean renewLease() {
+            return true;
+        }
+
+        @Override
+        public ScanMetrics getScanMetrics() {
+            return null;
+        }
+    }
+
+    private static final class StubConnection implements Connection {
+        private final Table table;
+
+        StubConnection(Table table) {
+            this.table = table;
+        }
+
+        @Override
+        public Table getTable(TableName tableName) {
+            return table;
+        }
+
+        @Override
+        public Table getTable(TableName tableName, ExecutorService pool) {
+            return table;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public Configuration getConfiguration() {
+            throw unsupported("getConfiguration");
+        }
+
+        @Override
+        public BufferedMutator getBufferedMutator(TableName tableName) {
+            throw unsupported("getBufferedMutator");
+        }
+
+        @Override
+        public BufferedMutator getBufferedMutator(BufferedMutatorParams params) {
+            throw unsupported("getBufferedMutator");
+        }
+
+        @Override
+        public RegionLocator getRegionLocator(TableName tableName) {
+            throw unsupported("getRegionLocator");
+        }
+
+        @Override
+        public void clearRegionLocationCache() {
+        }
+
+        @Override
+        public Admin getAdmin() {
+            throw unsupported("getAdmin");
+        }
+
+        @Override
+        public TableBuilder getTableBuilder(TableName tableName, ExecutorService pool) {
+            throw unsupported("getTableBuilder");
+        }
+
+        @Override
+        public void abort(String why, Throwable e) {
+            throw unsupported("abort");
+        }
+
+        @Override
+        public boolean isAborted() {
+            return false;
+        }
+    }
+
+    private static final class StubMutator implements BufferedMutator {
+        private final MutationConsumer consumer;
+
+        StubMutator(MutationConsumer consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void mutate(Mutation mutation) {
+            consumer.accept(mutation);
+        }
+
+        @Override
+        public void mutate(List<? extends Mutation> mutations) {
+            for (int i = 0; i < mutations.size(); i++) {
+                consumer.accept(mutations.get(i));
+            }
+        }
+
+        @Override
+        public TableName getName() {
+            return TABLE_NAME;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public Configuration getConfiguration() {
+            throw unsupported("getConfiguration");
+        }
+
+        @Override
+        public long getWriteBufferSize() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public void setRpcTimeout(int timeout) {
+        }
+
+        @Override
+        public void setOperationTimeout(int timeout) {
+        }
+    }
+
+    interface RowPredicate {
+        boolean test(byte[] rowKey);
+    }
+
+    interface MutationConsumer {
+        void accept(Mutation mutation);
+    }
+}
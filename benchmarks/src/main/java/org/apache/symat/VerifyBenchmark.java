@@ -0,0 +1,104 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.symat;
+
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rows / sec of the CorruptRowsMR verification path (GET per row, or multi-get with bisection on failures),
+ * using a stub table returning the same row for each GET. Run with the gc profiler to get the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VerifyBenchmark {
+
+    // power of two, so the next row can be selected with a mask
+    private static final int ROWS = 1024;
+
+    @Param({"1", "100"})
+    public int batchSize;
+
+    @Param({"0", "1"})
+    public int failurePercent;
+
+    @Param({"10"})
+    public int cellsPerRow;
+
+    private ImmutableBytesWritable[] keys;
+    private RowVerifier verifier;
+    private int next;
+    private long failedRows;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        byte[][] rowKeys = Stubs.rowKeys(ROWS);
+        keys = new ImmutableBytesWritable[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            keys[i] = new ImmutableBytesWritable(rowKeys[i]);
+        }
+        Result result = Stubs.row(rowKeys[0], cellsPerRow, 100);
+        Table table = Stubs.table(result, this::isFailing, new Result[0]);
+        JobConf conf = new JobConf(false);
+        conf.set("corruptRowsMR.table", Stubs.TABLE_NAME.getNameAsString());
+        conf.setInt(CorruptRowsMR.BATCH_SIZE_KEY, batchSize);
+        verifier = new RowVerifier(conf, Stubs.connection(table), null, (key, value) -> failedRows++,
+                Reporter.NULL);
+    }
+
+    /**
+     * the last two digits of the row keys are the row index modulo 100
+     */
+    private boolean isFailing(byte[] rowKey) {
+        int index = (rowKey[rowKey.length - 2] - '0') * 10 + (rowKey[rowKey.length - 1] - '0');
+        return index < failurePercent;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        verifier.close();
+    }
+
+    @Benchmark
+    public void verify() throws IOException {
+        verifier.verify(keys[next++ & (ROWS - 1)]);
+    }
+}
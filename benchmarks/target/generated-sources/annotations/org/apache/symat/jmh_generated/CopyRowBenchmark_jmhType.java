@@ -0,0 +1,4 @@
+package org.apache.symat.jmh_generated;
+public class CopyRowBenchmark_jmhType extends CopyRowBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package org.apache.symat.jmh_generated;
+public class OutputBenchmark_jmhType extends OutputBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package org.apache.symat.jmh_generated;
+public class ScanVerifyBenchmark_jmhType extends ScanVerifyBenchmark_jmhType_B3 {
+}
+
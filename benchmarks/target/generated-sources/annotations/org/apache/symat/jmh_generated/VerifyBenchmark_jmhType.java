@@ -0,0 +1,4 @@
+package org.apache.symat.jmh_generated;
+public class VerifyBenchmark_jmhType extends VerifyBenchmark_jmhType_B3 {
+}
+
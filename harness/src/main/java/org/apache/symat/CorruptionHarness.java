@@ -0,0 +1,671 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.symat;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.ColumnFamilyDescriptor;
+import org.apache.hadoop.hbase.client.ColumnFamilyDescriptorBuilder;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.client.TableDescriptor;
+import org.apache.hadoop.hbase.client.TableDescriptorBuilder;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+import org.apache.hadoop.hbase.io.hfile.BlockType;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.io.hfile.HFileBlock;
+import org.apache.hadoop.hbase.io.hfile.HFileScanner;
+import org.apache.hadoop.hbase.mob.MobConstants;
+import org.apache.hadoop.hbase.mob.MobUtils;
+import org.apache.hadoop.hbase.regionserver.HStore;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.CommonFSUtils;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * End-to-end check of the tools on a mini cluster started in this JVM (HDFS, ZooKeeper, HBase, no YARN).
+ * <p>
+ * The harness loads a pre-split table with a plain and a MOB family, flushing every few rows, so each store file
+ * covers a known key range. Then it breaks some of the store files and MOB files (deleting or truncating them),
+ * computes the affected rows by reading the row keys of the broken files, and checks that the tools report exactly
+ * those rows: CorruptRowsMR (in local mode) for the MOB files, CorruptHFiles for the truncated files and CopyRow
+ * for everything. The wall-clock time and the rows/sec of each step are written to the report.
+ * <p>
+ * A truncated file keeps only a part of its first data block, so every data block of it is broken: the region
+ * server keeps the trailer and the block index of the open store files in memory, so the rows of the blocks before
+ * the cut would stay readable.
+ * <p>
+ * In GET mode CorruptRowsMR lists the row keys with a scanner, which fails on a broken store file of any family,
+ * so after breaking the store files it runs in scan-verify mode, where the key ranges which can't be listed are
+ * reported as a whole.
+ */
+public class CorruptionHarness extends Configured implements Tool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CorruptionHarness.class);
+
+    private static final TableName TABLE = TableName.valueOf("harness");
+    private static final TableName COPY_TABLE = TableName.valueOf("harness_copy");
+    private static final byte[] FAMILY = Bytes.toBytes("cf");
+    private static final byte[] MOB_FAMILY = Bytes.toBytes("mob");
+    private static final byte[] QUALIFIER = Bytes.toBytes("q");
+    private static final Path WORK_DIR = new Path("/harness");
+    private static final long VISIBILITY_TIMEOUT_MS = 120_000;
+    // the failure message of a key range in scan-verify mode, see RowVerifier.scanVerify
+    private static final String RANGE_FAILURE = "UnreadableKeyRange, message: the rows until ";
+    private static final String RANGE_END_SUFFIX = " can not be read: ";
+
+    private int rows = 10000;
+    private int regions = 4;
+    private int flushEvery = 1000;
+    private int minValueSize = 100;
+    private int maxValueSize = 100_000;
+    private long mobThreshold = 10240;
+    private long seed = 42;
+    private int deleteHFiles = 1;
+    private int truncateHFiles = 1;
+    private int deleteMobFiles = 1;
+    private int truncateMobFiles = 1;
+    private int threads = 8;
+    private String report = "";
+
+    private final List<Step> steps = new ArrayList<>();
+
+    /**
+     * a step of the run, as written to the report
+     */
+    private static class Step {
+        final String name;
+        final long millis;
+        final long rows;
+        final boolean passed;
+        final String details;
+
+        Step(String name, long millis, long rows, boolean passed, String details) {
+            this.name = name;
+            this.millis = millis;
+            this.rows = rows;
+            this.passed = passed;
+            this.details = details;
+        }
+    }
+
+    private static void printUsageAndDie() {
+        System.err.println("usage: ");
+        System.err.println("  cd harness && mvn compile exec:java -Dexec.args=\"<options>\"\n");
+        System.err.println("options:");
+        System.err.println("    --rows <n>                   : number of rows loaded (default:10000)");
+        System.err.println("    --regions <n>                : number of regions of the table (default:4)");
+        System.err.println("    --flushEvery <n>             : flush the table after this many rows, one store file per flush (default:1000)");
+        System.err.println("    --minValueSize <bytes>       : min size of the values, log-uniform distribution (default:100)");
+        System.err.println("    --maxValueSize <bytes>       : max size of the values, log-uniform distribution (default:100000)");
+        System.err.println("    --mobThreshold <bytes>       : values of the MOB family above this size go to MOB files (default:10240)");
+        System.err.println("    --seed <n>                   : seed of the values and of the choice of the broken files (default:42)");
+        System.err.println("    --deleteHFiles <n>           : number of store files deleted (default:1)");
+        System.err.println("    --truncateHFiles <n>         : number of store files truncated (default:1)");
+        System.err.println("    --deleteMobFiles <n>         : number of MOB files deleted (default:1)");
+        System.err.println("    --truncateMobFiles <n>       : number of MOB files truncated (default:1)");
+        System.err.println("    --threads <n>                : threads of CorruptRowsMR, CorruptHFiles and CopyRow (default:8)");
+        System.err.println("    --report <local file>        : where to write the report (default: standard output)");
+        System.exit(1);
+    }
+
+    @Override
+    public int run(String[] args) throws Exception {
+        if (args.length % 2 != 0) {
+            printUsageAndDie();
+        }
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--rows")) {
+                rows = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--regions")) {
+                regions = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--flushEvery")) {
+                flushEvery = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--minValueSize")) {
+                minValueSize = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--maxValueSize")) {
+                maxValueSize = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--mobThreshold")) {
+                mobThreshold = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--seed")) {
+                seed = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--deleteHFiles")) {
+                deleteHFiles = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--truncateHFiles")) {
+                truncateHFiles = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--deleteMobFiles")) {
+                deleteMobFiles = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--truncateMobFiles")) {
+                truncateMobFiles = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--report")) {
+                report = args[++i];
+            } else {
+                printUsageAndDie();
+            }
+        }
+        if (rows < 1 || regions < 1 || regions > rows || flushEvery < 1 || threads < 1) {
+            System.err.println("invalid parameter: --rows, --regions, --flushEvery and --threads must be positive,"
+                    + " and there can't be more regions than rows");
+            printUsageAndDie();
+        }
+        if (minValueSize < 1 || maxValueSize < minValueSize) {
+            System.err.println("invalid parameter: the value sizes must be positive and --maxValueSize >= --minValueSize");
+            printUsageAndDie();
+        }
+        if (deleteHFiles < 0 || truncateHFiles < 0 || deleteMobFiles < 0 || truncateMobFiles < 0) {
+            System.err.println("invalid parameter: the number of broken files can't be negative");
+            printUsageAndDie();
+        }
+
+        Configuration conf = HBaseConfiguration.create(getConf());
+        // every read has to go to the files, otherwise a broken file may be served from a cache
+        conf.setFloat(HConstants.HFILE_BLOCK_CACHE_SIZE_KEY, 0f);
+        conf.setInt(MobConstants.MOB_FILE_CACHE_SIZE_KEY, 0);
+        // the chores must not touch the files while we break them
+        conf.setInt(MobConstants.MOB_CLEANER_PERIOD, Integer.MAX_VALUE);
+        conf.setInt(MobConstants.MOB_COMPACTION_CHORE_PERIOD, Integer.MAX_VALUE);
+        // with the compactions disabled, the flushes would be blocked by the number of store files
+        conf.setInt(HStore.BLOCKING_STOREFILES_KEY, Integer.MAX_VALUE);
+        // the reads of the broken rows should fail fast, instead of retrying for minutes
+        conf.setInt(HConstants.HBASE_CLIENT_RETRIES_NUMBER, 2);
+        conf.setLong(HConstants.HBASE_CLIENT_PAUSE, 100);
+        // no web UIs, they don't start with the old servlet API brought in by the hadoop dependencies
+        conf.setInt(HConstants.MASTER_INFO_PORT, -1);
+        conf.setInt(HConstants.REGIONSERVER_INFO_PORT, -1);
+
+        HBaseTestingUtility util = new HBaseTestingUtility(conf);
+        util.startMiniCluster(1);
+        try {
+            Configuration clusterConf = util.getConfiguration();
+            try (Connection connection = ConnectionFactory.createConnection(clusterConf)) {
+                runSteps(util, clusterConf, connection);
+            }
+        } finally {
+            util.shutdownMiniCluster();
+        }
+
+        boolean passed = steps.stream().allMatch(step -> step.passed);
+        try (PrintStream out = report.isEmpty() ? CorruptHFiles.openOutput(getConf(), "")
+                : new PrintStream(new FileOutputStream(report), true, StandardCharsets.UTF_8.name())) {
+            out.println("# rows=" + rows + " regions=" + regions + " flushEvery=" + flushEvery
+                    + " valueSize=[" + minValueSize + ", " + maxValueSize + "] mobThreshold=" + mobThreshold
+                    + " seed=" + seed + " threads=" + threads);
+            out.println("step\tmillis\trows\trows/sec\tresult\tdetails");
+            for (Step step : steps) {
+                out.println(step.name + "\t" + step.millis + "\t" + step.rows
+                        + "\t" + step.rows * 1000 / Math.max(1, step.millis)
+                        + "\t" + (step.passed ? "PASS" : "FAIL") + "\t" + step.details);
+            }
+            out.println("# " + (passed ? "PASS" : "FAIL"));
+            out.flush();
+        }
+        return passed ? 0 : 1;
+    }
+
+    private void runSteps(HBaseTestingUtility util, Configuration conf, Connection connection) throws Exception {
+        FileSystem fs = CommonFSUtils.getRootDir(conf).getFileSystem(conf);
+        Path rootDir = CommonFSUtils.getRootDir(conf);
+        Random random = new Random(seed);
+
+        try (Admin admin = connection.getAdmin()) {
+            admin.createTable(tableDescriptor(TABLE, true), splitKeys());
+            admin.createTable(tableDescriptor(COPY_TABLE, false), splitKeys());
+            load(connection, admin, random);
+        }
+        Set<String> allRows = new TreeSet<>();
+        for (int i = 0; i < rows; i++) {
+            allRows.add(Bytes.toStringBinary(rowKey(i)));
+        }
+
+        // healthy table: nothing should be reported
+        verifyRows(conf, "CorruptRowsMR healthy get", "verify-healthy-get", false, Collections.emptySet());
+        verifyRows(conf, "CorruptRowsMR healthy mobAware", "verify-healthy-mob", true, Collections.emptySet());
+
+        // broken MOB files: the rows referencing them are reported, the scan listing the row keys still works
+        List<Path> mobFiles = storeFiles(fs, MobUtils.getMobTableDir(rootDir, TABLE), conf, null);
+        Set<String> mobRows = new TreeSet<>();
+        Set<String> truncatedFiles = new TreeSet<>();
+        breakFiles(fs, mobFiles, deleteMobFiles, truncateMobFiles, random, mobRows, new TreeSet<>(), truncatedFiles,
+                conf, "MOB");
+        verifyRows(conf, "CorruptRowsMR broken MOB get", "verify-mob-get", false, mobRows);
+        verifyRows(conf, "CorruptRowsMR broken MOB mobAware", "verify-mob-mob", true, mobRows);
+
+        // broken store files of the plain family
+        List<Path> hfiles = storeFiles(fs, CommonFSUtils.getTableDir(rootDir, TABLE), conf, Bytes.toString(FAMILY));
+        Set<String> hfileRows = new TreeSet<>();
+        Set<String> probeRows = new TreeSet<>();
+        breakFiles(fs, hfiles, deleteHFiles, truncateHFiles, random, hfileRows, probeRows, truncatedFiles,
+                conf, "store");
+        waitUntilVisible(util, connection, probeRows);
+
+        Set<String> brokenRows = new TreeSet<>(mobRows);
+        brokenRows.addAll(hfileRows);
+        verifyRanges(conf, allRows, brokenRows);
+
+        checkFiles(conf, truncatedFiles);
+
+        copyRows(conf, connection, fs, allRows, brokenRows);
+    }
+
+    private TableDescriptor tableDescriptor(TableName name, boolean mob) {
+        ColumnFamilyDescriptorBuilder mobFamily = ColumnFamilyDescriptorBuilder.newBuilder(MOB_FAMILY)
+                .setBlockCacheEnabled(false);
+        if (mob) {
+            mobFamily.setMobEnabled(true).setMobThreshold(mobThreshold);
+        }
+        ColumnFamilyDescriptor family = ColumnFamilyDescriptorBuilder.newBuilder(FAMILY).setBlockCacheEnabled(false).build();
+        // no compactions, the store files must stay the ones we know about
+        return TableDescriptorBuilder.newBuilder(name).setColumnFamily(family).setColumnFamily(mobFamily.build())
+                .setCompactionEnabled(false).build();
+    }
+
+    private byte[][] splitKeys() {
+        byte[][] keys = new byte[regions - 1][];
+        for (int i = 1; i < regions; i++) {
+            keys[i - 1] = rowKey((int) ((long) rows * i / regions));
+        }
+        return keys;
+    }
+
+    private static byte[] rowKey(int i) {
+        return Bytes.toBytes(String.format("row-%010d", i));
+    }
+
+    /**
+     * writing the rows in order and flushing after every flushEvery rows, so each flush creates a new store file
+     * (and MOB file) with a disjoint key range
+     */
+    private void load(Connection connection, Admin admin, Random random) throws IOException {
+        long start = System.currentTimeMillis();
+        long bytes = 0;
+        try (BufferedMutator mutator = connection.getBufferedMutator(TABLE)) {
+            for (int i = 0; i < rows; i++) {
+                byte[] value = value(random);
+                byte[] mobValue = value(random);
+                bytes += value.length + mobValue.length;
+                mutator.mutate(new Put(rowKey(i)).addColumn(FAMILY, QUALIFIER, value)
+                        .addColumn(MOB_FAMILY, QUALIFIER, mobValue));
+                if ((i + 1) % flushEvery == 0 || i == rows - 1) {
+                    mutator.flush();
+                    admin.flush(TABLE);
+                }
+            }
+        }
+        steps.add(new Step("load", System.currentTimeMillis() - start, rows, true, bytes + " bytes"));
+    }
+
+    /**
+     * @return random bytes, the size has a log-uniform distribution between minValueSize and maxValueSize
+     */
+    private byte[] value(Random random) {
+        double logMin = Math.log(minValueSize);
+        double logMax = Math.log(maxValueSize);
+        int size = (int) Math.min(maxValueSize, Math.round(Math.exp(logMin + random.nextDouble() * (logMax - logMin))));
+        byte[] value = new byte[size];
+        random.nextBytes(value);
+        return value;
+    }
+
+    /**
+     * @return the store files under the table dir, only of the given family if it's not null
+     */
+    private static List<Path> storeFiles(FileSystem fs, Path tableDir, Configuration conf, String family)
+            throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (CorruptHFiles.StoreFileRef ref : CorruptHFiles.collectStoreFiles(fs, tableDir, conf)) {
+            Path path = ref.resolve(fs);
+            if (family == null || path.getParent().getName().equals(family)) {
+                files.add(path);
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    /**
+     * Deleting and truncating randomly chosen files. The row keys of the files are read before breaking them,
+     * and added to brokenRows, the first row of each file to probeRows.
+     */
+    private static void breakFiles(FileSystem fs, List<Path> files, int delete, int truncate, Random random,
+                                   Set<String> brokenRows, Set<String> probeRows, Set<String> truncatedFiles,
+                                   Configuration conf, String kind) throws IOException {
+        if (files.size() < delete + truncate) {
+            throw new IOException("only " + files.size() + " " + kind + " files to break " + (delete + truncate)
+                    + ", use more --rows or a smaller --flushEvery (or a lower --mobThreshold for MOB files)");
+        }
+        List<Path> chosen = new ArrayList<>(files);
+        Collections.shuffle(chosen, random);
+        for (int i = 0; i < delete + truncate; i++) {
+            Path file = chosen.get(i);
+            TreeSet<String> fileRows = rowsOf(fs, file, conf);
+            brokenRows.addAll(fileRows);
+            if (!fileRows.isEmpty()) {
+                probeRows.add(fileRows.first());
+            }
+            if (i < delete) {
+                LOG.info("deleting {} file: {}", kind, file);
+                fs.delete(file, false);
+            } else {
+                LOG.info("truncating {} file: {}", kind, file);
+                truncate(fs, file, conf);
+                truncatedFiles.add(file.getName());
+            }
+        }
+    }
+
+    private static TreeSet<String> rowsOf(FileSystem fs, Path file, Configuration conf) throws IOException {
+        TreeSet<String> rowKeys = new TreeSet<>();
+        try (HFile.Reader reader = HFile.createReader(fs, file, CacheConfig.DISABLED, true, conf);
+             HFileScanner scanner = reader.getScanner(false, false)) {
+            if (scanner.seekTo()) {
+                do {
+                    rowKeys.add(Bytes.toStringBinary(CellUtil.cloneRow(scanner.getCell())));
+                } while (scanner.next());
+            }
+        }
+        return rowKeys;
+    }
+
+    /**
+     * Keeping the first half of the first data block, so all the data blocks are cut off (see the class comment).
+     * The file is rewritten, not truncated in place, because the HDFS truncate finishes asynchronously.
+     */
+    private static void truncate(FileSystem fs, Path file, Configuration conf) throws IOException {
+        long cut;
+        try (HFile.Reader reader = HFile.createReader(fs, file, CacheConfig.DISABLED, true, conf)) {
+            long offset = reader.getTrailer().getFirstDataBlockOffset();
+            HFileBlock block = reader.readBlock(offset, -1, false, true, false, false, BlockType.DATA, null);
+            try {
+                cut = offset + block.getOnDiskSizeWithHeader() / 2;
+            } finally {
+                block.release();
+            }
+        }
+        byte[] head = new byte[(int) cut];
+        try (FSDataInputStream in = fs.open(file)) {
+            in.readFully(0, head);
+        }
+        fs.delete(file, false);
+        try (FSDataOutputStream out = fs.create(file, false)) {
+            out.write(head);
+        }
+    }
+
+    /**
+     * The region server keeps the store files open, so it only notices the deleted blocks when the datanode
+     * has removed them. Waiting until the first row of each broken store file fails to read.
+     */
+    private static void waitUntilVisible(HBaseTestingUtility util, Connection connection, Set<String> probeRows)
+            throws Exception {
+        Set<String> pending = new TreeSet<>(probeRows);
+        long deadline = System.currentTimeMillis() + VISIBILITY_TIMEOUT_MS;
+        try (Table table = connection.getTable(TABLE)) {
+            while (!pending.isEmpty()) {
+                util.getDFSCluster().triggerHeartbeats();
+                pending.removeIf(row -> {
+                    try {
+                        table.get(new Get(Bytes.toBytesBinary(row)));
+                        return false;
+                    } catch (IOException e) {
+                        return true;
+                    }
+                });
+                if (pending.isEmpty()) {
+                    break;
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException(pending.size() + " broken rows are still readable after "
+                            + VISIBILITY_TIMEOUT_MS + " ms, e.g. " + pending.iterator().next());
+                }
+                Thread.sleep(1000);
+            }
+        }
+    }
+
+    private void verifyRows(Configuration conf, String name, String output, boolean mobAware,
+                            Set<String> expectedRows) throws Exception {
+        Path outputDir = new Path(WORK_DIR, output);
+        long start = System.currentTimeMillis();
+        int exitCode = ToolRunner.run(new Configuration(conf), new CorruptRowsMR(), new String[]{
+                "--table", TABLE.getNameAsString(), "--output", outputDir.toString(), "--local", "true",
+                "--threads", Integer.toString(threads), "--mobAware", Boolean.toString(mobAware)});
+        long millis = System.currentTimeMillis() - start;
+        FileSystem fs = outputDir.getFileSystem(conf);
+        Set<String> reported = new TreeSet<>();
+        for (byte[] row : CopyRow.readRowKeys(conf, outputDir)) {
+            reported.add(Bytes.toStringBinary(row));
+        }
+        long verified = counter(fs, new Path(outputDir, CorruptRowsMR.COUNTERS_FILE_NAME),
+                CorruptRowsMR.Counters.TOTAL_ROWS.name());
+        String details = compare(expectedRows, reported);
+        boolean passed = exitCode == 0 && verified == rows && details.isEmpty();
+        steps.add(new Step(name, millis, verified, passed,
+                "reported " + reported.size() + " rows, verified " + verified + " of " + rows + details));
+    }
+
+    /**
+     * Running CorruptRowsMR in scan-verify mode on the table with broken store files. The key ranges which can't
+     * be listed (from the start of the split until after the broken files) are reported as UnreadableKeyRange
+     * failures. Every broken row has to be reported, alone or in a range, the rows reported alone have to be broken
+     * ones, and all the rows outside the ranges have to be verified.
+     */
+    private void verifyRanges(Configuration conf, Set<String> allRows, Set<String> brokenRows) throws Exception {
+        Path outputDir = new Path(WORK_DIR, "verify-store-scan");
+        long start = System.currentTimeMillis();
+        int exitCode = ToolRunner.run(new Configuration(conf), new CorruptRowsMR(), new String[]{
+                "--table", TABLE.getNameAsString(), "--output", outputDir.toString(), "--local", "true",
+                "--threads", Integer.toString(threads), "--scanVerify", "true"});
+        long millis = System.currentTimeMillis() - start;
+        FileSystem fs = outputDir.getFileSystem(conf);
+        Set<String> reported = new TreeSet<>();
+        List<byte[][]> ranges = new ArrayList<>();
+        for (FileStatus file : fs.listStatus(outputDir)) {
+            String name = file.getPath().getName();
+            if (!file.isFile() || name.startsWith("_") || name.startsWith(".")) {
+                continue;
+            }
+            for (String line : readLines(fs, file.getPath())) {
+                int tab = line.indexOf('\t');
+                String row = line.substring(0, tab);
+                String message = line.substring(tab + 1);
+                if (message.startsWith(RANGE_FAILURE)) {
+                    int end = message.indexOf(RANGE_END_SUFFIX);
+                    ranges.add(new byte[][]{Bytes.toBytesBinary(row),
+                            Bytes.toBytesBinary(message.substring(RANGE_FAILURE.length(), end))});
+                } else {
+                    reported.add(row);
+                }
+            }
+        }
+        Set<String> covered = new TreeSet<>(reported);
+        long inRanges = 0;
+        for (String row : allRows) {
+            if (inRanges(Bytes.toBytesBinary(row), ranges)) {
+                covered.add(row);
+                inRanges++;
+            }
+        }
+        Set<String> missing = new TreeSet<>(brokenRows);
+        missing.removeAll(covered);
+        Set<String> unexpected = new TreeSet<>(reported);
+        unexpected.removeAll(brokenRows);
+        long verified = counter(fs, new Path(outputDir, CorruptRowsMR.COUNTERS_FILE_NAME),
+                CorruptRowsMR.Counters.TOTAL_ROWS.name());
+        boolean passed = exitCode == 0 && missing.isEmpty() && unexpected.isEmpty() && verified == rows - inRanges;
+        steps.add(new Step("CorruptRowsMR broken store scanVerify", millis, verified, passed,
+                "reported " + reported.size() + " rows and " + ranges.size() + " unreadable ranges with " + inRanges
+                        + " rows, verified " + verified + " of " + rows
+                        + (missing.isEmpty() ? "" : ", not reported " + missing.size() + ": " + first(missing))
+                        + (unexpected.isEmpty() ? "" : ", unexpected " + unexpected.size() + ": " + first(unexpected))));
+    }
+
+    private static boolean inRanges(byte[] row, List<byte[][]> ranges) {
+        for (byte[][] range : ranges) {
+            if (Bytes.compareTo(row, range[0]) >= 0 && (range[1].length == 0 || Bytes.compareTo(row, range[1]) < 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void checkFiles(Configuration conf, Set<String> truncatedFiles) throws Exception {
+        Path output = new Path(WORK_DIR, "check-files");
+        long start = System.currentTimeMillis();
+        int exitCode = ToolRunner.run(new Configuration(conf), new CorruptHFiles(), new String[]{
+                "--table", TABLE.getNameAsString(), "--output", output.toString(),
+                "--threads", Integer.toString(threads)});
+        long millis = System.currentTimeMillis() - start;
+        Set<String> reported = new TreeSet<>();
+        for (String line : readLines(output.getFileSystem(conf), output)) {
+            reported.add(new Path(line.substring(0, line.indexOf('\t'))).getName());
+        }
+        String details = compare(truncatedFiles, reported);
+        int expectedExitCode = truncatedFiles.isEmpty() ? 0 : 1;
+        steps.add(new Step("CorruptHFiles", millis, 0, exitCode == expectedExitCode && details.isEmpty(),
+                "reported " + reported.size() + " files" + details));
+    }
+
+    private void copyRows(Configuration conf, Connection connection, FileSystem fs, Set<String> allRows,
+                          Set<String> brokenRows) throws Exception {
+        Path rowKeysFile = new Path(WORK_DIR, "all-rows");
+        try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(fs.create(rowKeysFile, false),
+                StandardCharsets.UTF_8))) {
+            for (String row : allRows) {
+                out.write(row);
+                out.newLine();
+            }
+        }
+        long start = System.currentTimeMillis();
+        int exitCode = ToolRunner.run(new Configuration(conf), new CopyRow(), new String[]{
+                "--sourceTable", TABLE.getNameAsString(), "--destTable", COPY_TABLE.getNameAsString(),
+                "--rowKeysFile", rowKeysFile.toString(), "--threads", Integer.toString(threads)});
+        long millis = System.currentTimeMillis() - start;
+
+        Set<String> copied = new TreeSet<>();
+        Scan scan = new Scan().setFilter(new FilterList(new FirstKeyOnlyFilter(), new KeyOnlyFilter()));
+        try (Table table = connection.getTable(COPY_TABLE);
+             ResultScanner scanner = table.getScanner(scan)) {
+            for (Result r : scanner) {
+                copied.add(Bytes.toStringBinary(r.getRow()));
+            }
+        }
+        Set<String> expected = new TreeSet<>(allRows);
+        expected.removeAll(brokenRows);
+        String details = compare(expected, copied);
+        int expectedExitCode = brokenRows.isEmpty() ? 0 : 1;
+        steps.add(new Step("CopyRow", millis, copied.size(), exitCode == expectedExitCode && details.isEmpty(),
+                "copied " + copied.size() + " rows, exit code " + exitCode + details));
+    }
+
+    /**
+     * @return empty if the sets are equal, otherwise the first few missing and unexpected elements
+     */
+    private static String compare(Set<String> expected, Set<String> actual) {
+        Set<String> missing = new TreeSet<>(expected);
+        missing.removeAll(actual);
+        Set<String> unexpected = new TreeSet<>(actual);
+        unexpected.removeAll(expected);
+        if (missing.isEmpty() && unexpected.isEmpty()) {
+            return "";
+        }
+        return ", missing " + missing.size() + ": " + first(missing) + ", unexpected " + unexpected.size()
+                + ": " + first(unexpected);
+    }
+
+    private static List<String> first(Set<String> set) {
+        List<String> first = new ArrayList<>();
+        for (String s : set) {
+            if (first.size() == 5) {
+                break;
+            }
+            first.add(s);
+        }
+        return first;
+    }
+
+    private static long counter(FileSystem fs, Path file, String name) throws IOException {
+        for (String line : readLines(fs, file)) {
+            String[] fields = line.split("\t");
+            if (fields.length == 3 && fields[1].equals(name)) {
+                return Long.parseLong(fields[2]);
+            }
+        }
+        return -1;
+    }
+
+    private static List<String> readLines(FileSystem fs, Path file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        if (!fs.exists(file)) {
+            return lines;
+        }
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(fs.open(file), StandardCharsets.UTF_8))) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                if (!line.isEmpty()) {
+                    lines.add(line);
+                }
+            }
+        }
+        return lines;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int errCode = ToolRunner.run(HBaseConfiguration.create(), new CorruptionHarness(), args);
+        System.exit(errCode);
+    }
+}
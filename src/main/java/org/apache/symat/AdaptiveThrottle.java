@@ -0,0 +1,173 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.symat;
+
+import org.apache.hadoop.hbase.CallQueueTooBigException;
+import org.apache.hadoop.hbase.RegionTooBusyException;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
+import org.apache.hadoop.hbase.quotas.RpcThrottlingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate limiter for the requests sent by a single mapper. The requests are spread evenly in time, so
+ * the configured rows/sec and bytes/sec limits are never exceeded. The limits are scaled down when the
+ * RegionServers are overloaded (the average latency goes above the target, or we get exceptions like
+ * RegionTooBusyException / CallQueueTooBigException) and scaled up again slowly, when they are not, but never above
+ * the configured limits. Without a rows/sec or bytes/sec limit there is nothing to scale, so the class does nothing.
+ *
+ * This class is not thread safe, it should be used only by the mapper thread.
+ */
+class AdaptiveThrottle {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveThrottle.class);
+
+    private static final double MIN_FACTOR = 0.05;
+    private static final double BACKOFF_ON_LATENCY = 0.7;
+    private static final double BACKOFF_ON_ERROR = 0.5;
+    private static final double SPEEDUP_STEP = 0.05;
+    private static final long ADJUST_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final double maxRowsPerSec;
+    private final double maxBytesPerSec;
+    private final long targetLatencyNanos;
+    private double factor = 1.0;
+    private long rowsNextFreeNanos;
+    private long bytesNextFreeNanos;
+    private long throttledNanos;
+    private double averageLatencyNanos = -1;
+    private long lastAdjustNanos;
+    private long backoffs;
+
+    /**
+     * @param maxRowsPerSec max number of rows / sec, 0 means no limit
+     * @param maxBytesPerSec max number of bytes / sec, 0 means no limit
+     * @param targetLatencyMs slow down above this average request latency, 0 means no latency target
+     */
+    AdaptiveThrottle(double maxRowsPerSec, double maxBytesPerSec, long targetLatencyMs) {
+        this.maxRowsPerSec = maxRowsPerSec;
+        this.maxBytesPerSec = maxBytesPerSec;
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMs);
+        long now = System.nanoTime();
+        this.rowsNextFreeNanos = now;
+        this.bytesNextFreeNanos = now;
+        this.lastAdjustNanos = now;
+    }
+
+    boolean isEnabled() {
+        return maxRowsPerSec > 0 || maxBytesPerSec > 0;
+    }
+
+    /**
+     * blocking until we are allowed to send a request for the given number of rows
+     */
+    void acquire(int numberOfRows) throws InterruptedIOException {
+        if (!isEnabled()) {
+            return;
+        }
+        long now = System.nanoTime();
+        long wakeUp = Math.max(rowsNextFreeNanos, bytesNextFreeNanos);
+        if (wakeUp > now) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wakeUp - now);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while throttled");
+            }
+            throttledNanos += wakeUp - now;
+            now = wakeUp;
+        }
+        if (maxRowsPerSec > 0) {
+            rowsNextFreeNanos = Math.max(rowsNextFreeNanos, now) + (long) (numberOfRows * 1e9 / (maxRowsPerSec * factor));
+        }
+    }
+
+    /**
+     * registering a successful request. The bytes already read are charged to the next request.
+     *
+     * @param latencyNanos the latency of the request, negative if the rows came without a request of their own
+     *                     (e.g. from the cache of a scanner), then only the bytes are charged
+     */
+    void onSuccess(long latencyNanos, long bytes) {
+        long now = System.nanoTime();
+        if (maxBytesPerSec > 0) {
+            bytesNextFreeNanos = Math.max(bytesNextFreeNanos, now) + (long) (bytes * 1e9 / (maxBytesPerSec * factor));
+        }
+        if (latencyNanos >= 0) {
+            averageLatencyNanos = averageLatencyNanos < 0 ? latencyNanos : 0.9 * averageLatencyNanos + 0.1 * latencyNanos;
+        }
+        if (now - lastAdjustNanos < ADJUST_INTERVAL_NANOS) {
+            return;
+        }
+        lastAdjustNanos = now;
+        if (targetLatencyNanos > 0 && averageLatencyNanos > targetLatencyNanos) {
+            backOff(BACKOFF_ON_LATENCY);
+        } else if (factor < 1.0) {
+            factor = Math.min(1.0, factor + SPEEDUP_STEP);
+        }
+    }
+
+    /**
+     * registering a failed request, slowing down if the error means that the RegionServer is overloaded
+     */
+    void onError(Throwable e) {
+        if (isOverloaded(e)) {
+            lastAdjustNanos = System.nanoTime();
+            backOff(BACKOFF_ON_ERROR);
+        }
+    }
+
+    private void backOff(double multiplier) {
+        double previous = factor;
+        factor = Math.max(MIN_FACTOR, factor * multiplier);
+        backoffs++;
+        LOG.debug("backing off, rate limits scaled from {} to {}", previous, factor);
+    }
+
+    static boolean isOverloaded(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof RegionTooBusyException
+                    || t instanceof CallQueueTooBigException
+                    || t instanceof RpcThrottlingException) {
+                return true;
+            }
+            if (t instanceof RetriesExhaustedWithDetailsException) {
+                for (Throwable cause : ((RetriesExhaustedWithDetailsException) t).getCauses()) {
+                    if (isOverloaded(cause)) {
+                        return true;
+                    }
+                }
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos);
+    }
+
+    long getBackoffs() {
+        return backoffs;
+    }
+}
@@ -0,0 +1,258 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.symat;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Progress checkpoints of the CorruptRowsMR job.
+ *
+ * Each mapper periodically writes a segment file into the _checkpoints folder of the output dir. A segment
+ * covers the [start, stop) key range verified since the previous segment of the mapper, and contains the
+ * failures found in that range, in the same format as the job output. An empty stop key means the end of the table.
+ */
+class Checkpoints {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Checkpoints.class);
+
+    static final String DIR_NAME = "_checkpoints";
+    static final String RESUMED_OUTPUT_NAME = "part-resumed";
+    private static final String RANGE_HEADER = "#range";
+
+    static class Segment {
+        final Path path;
+        final byte[] start;
+        final byte[] stop;
+
+        Segment(Path path, byte[] start, byte[] stop) {
+            this.path = path;
+            this.start = start;
+            this.stop = stop;
+        }
+    }
+
+    /**
+     * writing the segments of a single task attempt
+     */
+    static class Writer {
+        private final FileSystem fs;
+        private final Path dir;
+        private final String attemptId;
+        private final long intervalMs;
+        private final List<String> failures = new ArrayList<>();
+        private byte[] segmentStart;
+        private int sequence;
+        private long lastWrite;
+
+        Writer(Configuration conf, Path dir, String attemptId, byte[] splitStart, long intervalMs) throws IOException {
+            this.fs = dir.getFileSystem(conf);
+            this.dir = dir;
+            this.attemptId = attemptId;
+            this.intervalMs = intervalMs;
+            this.segmentStart = splitStart;
+            this.lastWrite = System.currentTimeMillis();
+            fs.mkdirs(dir);
+            deletePreviousAttempts();
+        }
+
+        /**
+         * the output of the failed attempts of the same task is lost, so we can not keep their segments either
+         */
+        private void deletePreviousAttempts() throws IOException {
+            String taskPrefix = attemptId.substring(0, attemptId.lastIndexOf('_') + 1);
+            for (FileStatus file : fs.listStatus(dir)) {
+                String name = file.getPath().getName();
+                if (name.startsWith(taskPrefix) && !name.startsWith(attemptId + "-")) {
+                    LOG.info("deleting checkpoint of previous attempt: {}", file.getPath());
+                    fs.delete(file.getPath(), false);
+                }
+            }
+        }
+
+        void addFailure(String rowKey, String message) {
+            failures.add(rowKey + "\t" + message);
+        }
+
+        boolean isDue() {
+            return System.currentTimeMillis() - lastWrite >= intervalMs;
+        }
+
+        /**
+         * writing the segment for the [segmentStart, stop) key range, and starting the next segment from stop
+         */
+        void write(byte[] stop) throws IOException {
+            lastWrite = System.currentTimeMillis();
+            if (stop.length > 0 && Bytes.equals(segmentStart, stop) && failures.isEmpty()) {
+                return;
+            }
+            Path target = new Path(dir, String.format("%s-%05d", attemptId, sequence++));
+            Path tmp = new Path(dir, "." + target.getName() + ".tmp");
+            try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(fs.create(tmp, true), StandardCharsets.UTF_8))) {
+                out.write(RANGE_HEADER + "\t" + Bytes.toStringBinary(segmentStart) + "\t" + Bytes.toStringBinary(stop));
+                out.newLine();
+                for (String failure : failures) {
+                    out.write(failure);
+                    out.newLine();
+                }
+            }
+            if (!fs.rename(tmp, target)) {
+                throw new IOException("unable to rename checkpoint " + tmp + " to " + target);
+            }
+            segmentStart = stop;
+            failures.clear();
+        }
+    }
+
+    /**
+     * @return the smallest row key which is bigger than the given row key
+     */
+    static byte[] after(byte[] row) {
+        return Bytes.add(row, new byte[]{0});
+    }
+
+    /**
+     * reading the key ranges of all the segments in the checkpoint dir
+     */
+    static List<Segment> read(Configuration conf, Path dir) throws IOException {
+        FileSystem fs = dir.getFileSystem(conf);
+        List<Segment> segments = new ArrayList<>();
+        if (!fs.exists(dir)) {
+            LOG.warn("checkpoint dir does not exist: {}", dir);
+            return segments;
+        }
+        for (FileStatus file : fs.listStatus(dir)) {
+            Path path = file.getPath();
+            if (!file.isFile() || path.getName().startsWith(".")) {
+                continue;
+            }
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(fs.open(path), StandardCharsets.UTF_8))) {
+                String header = in.readLine();
+                String[] parts = header == null ? new String[0] : header.split("\t", -1);
+                if (parts.length != 3 || !parts[0].equals(RANGE_HEADER)) {
+                    throw new IOException("invalid checkpoint file: " + path);
+                }
+                segments.add(new Segment(path, Bytes.toBytesBinary(parts[1]), Bytes.toBytesBinary(parts[2])));
+            }
+        }
+        return segments;
+    }
+
+    private static int compareStops(byte[] a, byte[] b) {
+        if (a.length == 0 || b.length == 0) {
+            return Integer.compare(a.length == 0 ? 1 : 0, b.length == 0 ? 1 : 0);
+        }
+        return Bytes.compareTo(a, b);
+    }
+
+    /**
+     * @return the key ranges of the segments, sorted and merged where they overlap or touch
+     */
+    static List<byte[][]> verifiedRanges(List<Segment> segments) {
+        List<byte[][]> ranges = new ArrayList<>(segments.size());
+        for (Segment segment : segments) {
+            ranges.add(new byte[][]{segment.start, segment.stop});
+        }
+        ranges.sort((a, b) -> Bytes.compareTo(a[0], b[0]));
+        List<byte[][]> merged = new ArrayList<>();
+        for (byte[][] range : ranges) {
+            byte[][] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && (last[1].length == 0 || Bytes.compareTo(range[0], last[1]) <= 0)) {
+                if (compareStops(range[1], last[1]) > 0) {
+                    last[1] = range[1];
+                }
+            } else {
+                merged.add(new byte[][]{range[0], range[1]});
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * @return the parts of the [start, end) key range which are not covered by the given verified ranges
+     */
+    static List<byte[][]> subtract(byte[] start, byte[] end, List<byte[][]> verified) {
+        if (verified.isEmpty()) {
+            return Collections.singletonList(new byte[][]{start, end});
+        }
+        List<byte[][]> remaining = new ArrayList<>();
+        byte[] cursor = start;
+        for (byte[][] range : verified) {
+            if (range[1].length > 0 && Bytes.compareTo(range[1], cursor) <= 0) {
+                continue;
+            }
+            if (end.length > 0 && Bytes.compareTo(range[0], end) >= 0) {
+                break;
+            }
+            if (Bytes.compareTo(range[0], cursor) > 0) {
+                remaining.add(new byte[][]{cursor, range[0]});
+            }
+            if (compareStops(range[1], end) >= 0) {
+                return remaining;
+            }
+            cursor = range[1];
+        }
+        remaining.add(new byte[][]{cursor, end});
+        return remaining;
+    }
+
+    /**
+     * Copying the segments of a previous run into the output dir, and writing the failures found in them
+     * into a separate part file. This way the output of the resumed job contains all the failures, and it
+     * can be resumed again later.
+     */
+    static void carryOver(Configuration conf, Path fromDir, Path outputDir) throws IOException {
+        List<Segment> segments = read(conf, fromDir);
+        FileSystem srcFs = fromDir.getFileSystem(conf);
+        FileSystem dstFs = outputDir.getFileSystem(conf);
+        Path toDir = new Path(outputDir, DIR_NAME);
+        dstFs.mkdirs(toDir);
+        long failures = 0;
+        Path resumedOutput = new Path(outputDir, RESUMED_OUTPUT_NAME);
+        try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(dstFs.create(resumedOutput, false), StandardCharsets.UTF_8))) {
+            for (Segment segment : segments) {
+                FileUtil.copy(srcFs, segment.path, dstFs, new Path(toDir, segment.path.getName()), false, conf);
+                try (BufferedReader in = new BufferedReader(new InputStreamReader(srcFs.open(segment.path), StandardCharsets.UTF_8))) {
+                    in.readLine();
+                    for (String line = in.readLine(); line != null; line = in.readLine()) {
+                        out.write(line);
+                        out.newLine();
+                        failures++;
+                    }
+                }
+            }
+        }
+        LOG.info("carried over {} checkpoints with {} failed rows from {}", segments.size(), failures, fromDir);
+    }
+}
@@ -19,49 +19,520 @@
 package org.apache.symat;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellBuilder;
 import org.apache.hadoop.hbase.CellBuilderFactory;
 import org.apache.hadoop.hbase.CellBuilderType;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.ConnectionFactory;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RegionInfo;
+import org.apache.hadoop.hbase.client.RegionLocator;
 import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
+import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.client.TableSnapshotScanner;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.MultiRowRangeFilter;
+import org.apache.hadoop.hbase.mob.MobConstants;
+import org.apache.hadoop.hbase.snapshot.RestoreSnapshotHelper;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.CommonFSUtils;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 
-public class CopyRow {
+/**
+ * Copying rows from one table to another (or to the same table), optionally with a new timestamp.
+ *
+ * The rows can be given one-by-one, in a file of row keys, or as a key range, and can be read from a table
+ * or directly from the files of a snapshot. The rows are grouped by regions, and the groups are copied in
+ * parallel over a single shared connection, using multi-gets (or scanners) on the source side and a
+ * BufferedMutator on the destination side.
+ */
+public class CopyRow extends Configured implements Tool {
 
     private static final Logger LOG =  LoggerFactory.getLogger(CopyRow.class);
 
+    /**
+     * copy statistics, shared by all the threads of the copy
+     */
+    static class CopyStats {
+        final AtomicLong rows = new AtomicLong();
+        final AtomicLong cells = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong missingRows = new AtomicLong();
+        final AtomicLong failedRows = new AtomicLong();
+        // key ranges which were not copied, because even their row keys can't be read
+        final AtomicLong unreadableRanges = new AtomicLong();
+        // a row can fail more than once, e.g. when it is written with several puts
+        private final Set<byte[]> failedRowKeys = new ConcurrentSkipListSet<>(Bytes.BYTES_COMPARATOR);
+
+        /**
+         * counting a row as failed, only once
+         * @param counted true if the row was already counted as copied (e.g. its cells were fetched)
+         * @return false if the row was already counted as failed
+         */
+        boolean failed(byte[] rowKey, boolean counted) {
+            if(!failedRowKeys.add(rowKey)) {
+                return false;
+            }
+            failedRows.incrementAndGet();
+            if(counted) {
+                rows.decrementAndGet();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * notified about the rows which could not be copied
+     */
+    interface SkippedRowListener {
+        void onSkipped(byte[] rowKey, boolean missing, String reason);
+    }
+
+    /**
+     * opening the scanners of the source
+     */
+    interface ScannerFactory {
+        ResultScanner open(Scan scan) throws IOException;
+    }
+
+    /**
+     * Copying rows into the destination mutator. Not thread safe (the cell builder is reused), each thread
+     * should use its own RowCopier, but the mutator and the stats can be shared.
+     *
+     * The cells of a row are sent in Puts of at most maxPutBytes. In streaming mode (and when copying key
+     * ranges) the rows are read with a scanner returning partial rows of at most scanBatch cells, so the
+     * memory needed doesn't depend on the width of the rows.
+     * The source table is null when the rows are read from a snapshot, only copyResults can be used then.
+     * The destination mutator is null in dry-run mode, then the rows are only read.
+     */
+    static class RowCopier {
+        private final Table source;
+        private final BufferedMutator dest;
+        private final boolean override;
+        private final long timestampToUse;
+        private final int scanBatch;
+        private final long maxPutBytes;
+        final CopyStats stats;
+        // the new cells are only referencing the arrays of the source cells, no need to copy the values
+        private final CellBuilder cellBuilder = CellBuilderFactory.create(CellBuilderType.SHALLOW_COPY);
+        private SkippedRowListener skippedRowListener;
+        // the last row counted by copyResults, so a failing scan knows if its row was counted
+        private byte[] lastCountedRow;
+        // the last row whose last cells were copied by copyResults
+        private byte[] lastCompleteRow;
+
+        RowCopier(Table source, BufferedMutator dest, boolean override, long timestampToUse,
+                  int scanBatch, long maxPutBytes, CopyStats stats) {
+            this.source = source;
+            this.dest = dest;
+            this.override = override;
+            this.timestampToUse = timestampToUse;
+            this.scanBatch = scanBatch;
+            this.maxPutBytes = maxPutBytes;
+            this.stats = stats;
+        }
+
+        RowCopier setSkippedRowListener(SkippedRowListener skippedRowListener) {
+            this.skippedRowListener = skippedRowListener;
+            return this;
+        }
+
+        private String sourceName() {
+            return source == null ? "snapshot" : source.getName().getNameAsString();
+        }
+
+        void missing(byte[] rowKey) {
+            LOG.warn("source {}: no data found in row {}", sourceName(), Bytes.toStringBinary(rowKey));
+            stats.missingRows.incrementAndGet();
+            if(skippedRowListener != null) {
+                skippedRowListener.onSkipped(rowKey, true, "no data found in the source");
+            }
+        }
+
+        private void failed(byte[] rowKey, boolean counted, String message, Throwable e) {
+            LOG.error("source {}: {} {}", sourceName(), message, Bytes.toStringBinary(rowKey), e);
+            stats.failed(rowKey, counted);
+            if(skippedRowListener != null) {
+                skippedRowListener.onSkipped(rowKey, false, RowVerifier.failureMessage(e));
+            }
+        }
+
+        /**
+         * copying the given rows with a single multi-get. If the multi-get fails, we fall back to
+         * single GETs, so only the failing rows are skipped.
+         */
+        void copyRows(List<byte[]> rowKeys) throws IOException {
+            List<Get> gets = new ArrayList<>(rowKeys.size());
+            for(byte[] rowKey : rowKeys) {
+                gets.add(new Get(rowKey));
+            }
+            Result[] results;
+            try {
+                results = source.get(gets);
+            } catch(IOException e) {
+                LOG.warn("multi-get of {} rows failed, fetching the rows one-by-one", rowKeys.size(), e);
+                for(byte[] rowKey : rowKeys) {
+                    copyRow(rowKey);
+                }
+                return;
+            }
+            for(int i = 0; i < results.length; i++) {
+                write(rowKeys.get(i), results[i]);
+            }
+        }
+
+        void copyRow(byte[] rowKey) throws IOException {
+            Result result;
+            try {
+                result = source.get(new Get(rowKey));
+            } catch(IOException e) {
+                failed(rowKey, false, "unable to fetch row", e);
+                return;
+            }
+            write(rowKey, result);
+        }
+
+        /**
+         * copying the rows one-by-one, each with a scanner returning the row in pieces
+         */
+        void copyRowsStreaming(List<byte[]> rowKeys) throws IOException {
+            copyRowsStreaming(source::getScanner, rowKeys);
+        }
+
+        void copyRowsStreaming(ScannerFactory scanners, List<byte[]> rowKeys) throws IOException {
+            for(byte[] rowKey : rowKeys) {
+                try {
+                    if(copyScan(scanners, newScan(rowKey).withStopRow(rowKey, true)) == 0) {
+                        missing(rowKey);
+                    }
+                } catch(IOException e) {
+                    failed(rowKey, Bytes.equals(rowKey, lastCountedRow),
+                            "unable to fetch (the row might be copied partially)", e);
+                }
+            }
+        }
+
+        /**
+         * copying all the rows of the [startRow, stopRow) key range of the source table
+         */
+        void copyRange(byte[] startRow, byte[] stopRow, int caching) throws IOException {
+            copyRange(source::getScanner, startRow, stopRow, caching);
+        }
+
+        /**
+         * Copying all the rows of the [startRow, stopRow) key range with the given scanners. When the scanner fails,
+         * it is reopened after the last complete row with caching 1, so the failure of the next scanner belongs to
+         * the next row. That row is counted as failed (it might be copied partially) and the copy continues after
+         * it. If even the key of the failing row can't be read, the end of the unreadable key range is found by
+         * bisecting, the range is counted as unreadable and the copy continues after it.
+         */
+        void copyRange(ScannerFactory scanners, byte[] startRow, byte[] stopRow, int caching) throws IOException {
+            byte[] resumeRow = startRow;
+            boolean inclusive = true;
+            int scanCaching = caching;
+            while(true) {
+                Scan scan = newScan(resumeRow).withStartRow(resumeRow, inclusive).setCaching(scanCaching);
+                if(stopRow.length > 0) {
+                    scan.withStopRow(stopRow);
+                }
+                resetRows();
+                IOException failure = null;
+                ResultScanner scanner = null;
+                try {
+                    scanner = scanners.open(scan);
+                    copyResults(scanner, null);
+                } catch(IOException e) {
+                    failure = e;
+                } finally {
+                    if(scanner != null) {
+                        scanner.close();
+                    }
+                }
+                if(failure == null) {
+                    return;
+                }
+                boolean incomplete = lastCountedRow != null && !Bytes.equals(lastCountedRow, lastCompleteRow);
+                if(incomplete && scanCaching == 1) {
+                    failed(lastCountedRow, true, "unable to fetch (the row might be copied partially)", failure);
+                    resumeRow = lastCountedRow;
+                    inclusive = false;
+                    scanCaching = caching;
+                    continue;
+                }
+                if(incomplete) {
+                    // the row is copied again by the next scanner
+                    stats.rows.decrementAndGet();
+                }
+                if(lastCompleteRow != null) {
+                    resumeRow = lastCompleteRow;
+                    inclusive = false;
+                }
+                if(scanCaching > 1) {
+                    LOG.warn("source {}: scan failed after row {}, retrying with caching 1", sourceName(),
+                            Bytes.toStringBinary(resumeRow), failure);
+                    scanCaching = 1;
+                    continue;
+                }
+                byte[] rangeStart = inclusive ? resumeRow : Checkpoints.after(resumeRow);
+                byte[] failedRow;
+                try {
+                    failedRow = nextRowKey(scanners, resumeRow, inclusive, stopRow);
+                } catch(IOException e) {
+                    byte[] rangeEnd = unreadableRangeEnd(scanners, rangeStart, stopRow);
+                    unreadable(rangeStart, rangeEnd, e);
+                    if(Bytes.equals(rangeEnd, stopRow)) {
+                        return;
+                    }
+                    resumeRow = rangeEnd;
+                    inclusive = true;
+                    scanCaching = caching;
+                    continue;
+                }
+                if(failedRow == null) {
+                    // the scanner fails, but the key-only scan finds no more rows
+                    unreadable(rangeStart, stopRow, failure);
+                    return;
+                }
+                failed(failedRow, false, "unable to fetch row", failure);
+                resumeRow = failedRow;
+                inclusive = false;
+                scanCaching = caching;
+            }
+        }
+
+        private void unreadable(byte[] rangeStart, byte[] rangeEnd, IOException e) {
+            LOG.error("source {}: unable to read the rows in [{}, {}), skipping them", sourceName(),
+                    Bytes.toStringBinary(rangeStart), Bytes.toStringBinary(rangeEnd), e);
+            stats.unreadableRanges.incrementAndGet();
+        }
+
+        /**
+         * Bisecting the [row, stopRow) key range, looking for the lowest key where the key-only scan works again,
+         * the same way as CorruptRowsMR does in scan-verify mode.
+         * @return the end (exclusive) of the unreadable key range starting at row, or stopRow if no readable key was found
+         */
+        private static byte[] unreadableRangeEnd(ScannerFactory scanners, byte[] row, byte[] stopRow) {
+            byte[] low = row;
+            byte[] high = stopRow;
+            for(int step = 0; step < RowVerifier.MAX_BISECT_STEPS; step++) {
+                byte[][] keys = MRUtil.splitKeyRange(low, high, 2);
+                if(keys.length < 3) {
+                    break;
+                }
+                try {
+                    nextRowKey(scanners, keys[1], true, stopRow);
+                    high = keys[1];
+                } catch(IOException e) {
+                    low = keys[1];
+                }
+            }
+            return high;
+        }
+
+        /**
+         * forgetting the rows of the previous scanner, before opening a new one
+         */
+        void resetRows() {
+            lastCountedRow = null;
+            lastCompleteRow = null;
+        }
+
+        /**
+         * forgetting the row being copied by the failed scanner, if it was not copied completely,
+         * so it can be copied again
+         */
+        void uncountIncompleteRow(Collection<byte[]> copiedRows) {
+            if(lastCountedRow != null && !Bytes.equals(lastCountedRow, lastCompleteRow)) {
+                stats.rows.decrementAndGet();
+                copiedRows.remove(lastCountedRow);
+            }
+        }
+
+        /**
+         * @return the first row key after (or from, if inclusive) the given row, using a key-only scan
+         */
+        private static byte[] nextRowKey(ScannerFactory scanners, byte[] row, boolean inclusive,
+                                         byte[] stopRow) throws IOException {
+            Scan scan = new Scan().withStartRow(row, inclusive).setCaching(1).setLimit(1).setCacheBlocks(false);
+            if(stopRow.length > 0) {
+                scan.withStopRow(stopRow);
+            }
+            scan.setFilter(new FilterList(FilterList.Operator.MUST_PASS_ALL, new FirstKeyOnlyFilter(), new KeyOnlyFilter()));
+            // we never want to resolve the MOB values here
+            scan.setAttribute(MobConstants.MOB_SCAN_RAW, RowVerifier.MOB_SCAN_RAW_VALUE);
+            try(ResultScanner scanner = scanners.open(scan)) {
+                Result r = scanner.next();
+                return r == null ? null : r.getRow();
+            }
+        }
+
+        Scan newScan(byte[] startRow) {
+            return new Scan()
+                    .withStartRow(startRow)
+                    .setBatch(scanBatch)
+                    .setAllowPartialResults(true)
+                    .setMaxResultSize(maxPutBytes)
+                    .setCacheBlocks(false);
+        }
+
+        private long copyScan(ScannerFactory scanners, Scan scan) throws IOException {
+            try(ResultScanner scanner = scanners.open(scan)) {
+                return copyResults(scanner, null);
+            }
+        }
+
+        /**
+         * copying the results of the scanner, the results can be partial rows
+         * @param copiedRows if not null, the keys of the copied rows are added to it
+         * @return the number of rows copied
+         */
+        long copyResults(ResultScanner scanner, Collection<byte[]> copiedRows) throws IOException {
+            long rows = 0;
+            byte[] currentRow = null;
+            for(Result result = scanner.next(); result != null; result = scanner.next()) {
+                if(result.isEmpty()) {
+                    continue;
+                }
+                if(currentRow == null || !Bytes.equals(currentRow, result.getRow())) {
+                    currentRow = result.getRow();
+                    lastCountedRow = currentRow;
+                    rows++;
+                    stats.rows.incrementAndGet();
+                    if(copiedRows != null) {
+                        copiedRows.add(currentRow);
+                    }
+                }
+                writeCells(currentRow, result);
+                if(!result.mayHaveMoreCellsInRow()) {
+                    lastCompleteRow = currentRow;
+                }
+            }
+            return rows;
+        }
+
+        private void write(byte[] rowKey, Result result) throws IOException {
+            if(result == null || result.isEmpty()) {
+                missing(rowKey);
+                return;
+            }
+            stats.rows.incrementAndGet();
+            writeCells(rowKey, result);
+        }
+
+        private void writeCells(byte[] rowKey, Result result) throws IOException {
+            stats.cells.addAndGet(result.size());
+            stats.bytes.addAndGet(RowVerifier.resultSize(result));
+            if(dest == null) {
+                return;
+            }
+            Put put = new Put(rowKey);
+            long putBytes = 0;
+            for(Cell cell : result.rawCells()) {
+                Cell cellToPut = cell;
+                if(override) {
+                    cellToPut = cellBuilder
+                            .clear()
+                            .setRow(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength())
+                            .setFamily(cell.getFamilyArray(), cell.getFamilyOffset(), cell.getFamilyLength())
+                            .setQualifier(cell.getQualifierArray(), cell.getQualifierOffset(), cell.getQualifierLength())
+                            .setTimestamp(timestampToUse)
+                            .setValue(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength())
+                            .setType(cell.getType())
+                            .build();
+                }
+                put.add(cellToPut);
+                putBytes += cell.getRowLength() + cell.getFamilyLength() + cell.getQualifierLength() + cell.getValueLength();
+                if(putBytes >= maxPutBytes) {
+                    dest.mutate(put);
+                    put = new Put(rowKey);
+                    putBytes = 0;
+                }
+            }
+            if(!put.isEmpty()) {
+                dest.mutate(put);
+            }
+        }
+    }
+
     private static void printUsageAndDie() {
         System.err.println("usage: ");
-        System.err.println("  export HBASE_CLASSPATH=./symat-hbase-tools-1.0.jar");
+        System.err.println("  export HBASE_CLASSPATH=./symat-hbase-tools-<version>.jar");
         System.err.println("  hbase org.apache.symat.CopyRow <options> \n");
         System.err.println("options:");
         System.err.println("    --sourceTable <ns:table>         : source table");
+        System.err.println("    --sourceSnapshot <snapshot>      : read the rows from the files of this snapshot, instead of a source table");
+        System.err.println("    --restoreDir <folder>            : temp folder for the snapshot restore, on the HBase filesystem (default: /tmp/copyrow-restore)");
         System.err.println("    --destTable <ns:table>           : destination table (can be same as source table)");
         System.err.println("    --rowKeyByteString <row key>     : row key byte string, as printed in HBase shell");
+        System.err.println("    --rowKeysFile <file or folder>   : file with one row key byte string per line, or CorruptRowsMR output (text or aggregated)");
+        System.err.println("    --startRow <row key>             : copy all the rows from this row key (inclusive)");
+        System.err.println("    --stopRow <row key>              : copy all the rows until this row key (exclusive)");
         System.err.println("    --override <true|false>          : if true, then timestamp will be changed before push");
         System.err.println("    --timestampToUse <epochMillis>   : if override=true, you can specify timestamp (default: current time)");
+        System.err.println("    --threads <n>                    : number of threads copying the rows in parallel (default: 8)");
+        System.err.println("    --batchSize <n>                  : number of rows fetched with a single multi-get (default: 100)");
+        System.err.println("    --streamRows <true|false>        : read the rows in pieces with a scanner, for very wide rows (default: false)");
+        System.err.println("    --scanBatch <n>                  : max number of cells read at once when streaming (default: 10000)");
+        System.err.println("    --maxPutBytes <bytes>            : max size of the cells sent in a single put (default: 2097152)");
         System.exit(1);
     }
 
 
-    public static void main(String[] args) {
+    @Override
+    public int run(String[] args) throws Exception {
         String sourceTable = "";
+        String sourceSnapshot = "";
+        String restoreDir = "/tmp/copyrow-restore";
         String destTable = "";
         String rowKeyByteString = "";
+        String rowKeysFile = "";
+        String startRow = null;
+        String stopRow = null;
         boolean override = false;
         long timestampToUse = System.currentTimeMillis();
+        int threads = 8;
+        int batchSize = 100;
+        boolean streamRows = false;
+        int scanBatch = 10000;
+        long maxPutBytes = 2 * 1024 * 1024;
 
         if(args.length %2 != 0) {
             printUsageAndDie();
@@ -69,21 +540,41 @@ public class CopyRow {
         for(int i=0; i< args.length; i++) {
             if(args[i].equals("--sourceTable")) {
                 sourceTable = args[++i];
+            } else if(args[i].equals("--sourceSnapshot")) {
+                sourceSnapshot = args[++i];
+            } else if(args[i].equals("--restoreDir")) {
+                restoreDir = args[++i];
             } else if(args[i].equals("--destTable")) {
                 destTable = args[++i];
             } else if(args[i].equals("--rowKeyByteString")) {
                 rowKeyByteString = args[++i];
+            } else if(args[i].equals("--rowKeysFile")) {
+                rowKeysFile = args[++i];
+            } else if(args[i].equals("--startRow")) {
+                startRow = args[++i];
+            } else if(args[i].equals("--stopRow")) {
+                stopRow = args[++i];
             } else if(args[i].equals("--override")) {
                 override = Boolean.parseBoolean(args[++i]);
             } else if(args[i].equals("--timestampToUse")) {
                 timestampToUse = Long.parseLong(args[++i]);
+            } else if(args[i].equals("--threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if(args[i].equals("--batchSize")) {
+                batchSize = Integer.parseInt(args[++i]);
+            } else if(args[i].equals("--streamRows")) {
+                streamRows = Boolean.parseBoolean(args[++i]);
+            } else if(args[i].equals("--scanBatch")) {
+                scanBatch = Integer.parseInt(args[++i]);
+            } else if(args[i].equals("--maxPutBytes")) {
+                maxPutBytes = Long.parseLong(args[++i]);
             } else {
                 printUsageAndDie();
             }
         }
 
-        if(sourceTable.isEmpty()) {
-            System.err.println("ERROR! missing source table parameter");
+        if(sourceTable.isEmpty() == sourceSnapshot.isEmpty()) {
+            System.err.println("ERROR! exactly one of source table or source snapshot parameter is needed");
             printUsageAndDie();
         }
 
@@ -92,60 +583,332 @@ public class CopyRow {
             printUsageAndDie();
         }
 
-        if(rowKeyByteString.isEmpty()) {
-            System.err.println("ERROR! missing row key parameter");
+        boolean rangeMode = startRow != null || stopRow != null;
+        int modes = (rowKeyByteString.isEmpty() ? 0 : 1) + (rowKeysFile.isEmpty() ? 0 : 1) + (rangeMode ? 1 : 0);
+        if(modes != 1) {
+            System.err.println("ERROR! exactly one of --rowKeyByteString, --rowKeysFile or --startRow / --stopRow is needed");
             printUsageAndDie();
         }
 
-        try {
-            Configuration conf = HBaseConfiguration.create();
-            try(Connection connection = ConnectionFactory.createConnection(conf)) {
-                long numberOfCells;
-                final byte[] row = Bytes.toBytesBinary(rowKeyByteString);
-                LOG.info("source table {}: row key: {}", sourceTable, rowKeyByteString);
-                List<Cell> cells;
-                try(Table source = connection.getTable(TableName.valueOf(sourceTable))) {
-                    Get get = new Get(row);
-                    Result result = source.get(get);
-                    cells = result.listCells();
-                    numberOfCells = cells == null ? 0 : cells.size();
-                    LOG.info("source table {}: fetched {} cells", sourceTable, numberOfCells);
-                }
-                if(numberOfCells == 0) {
-                    LOG.warn("source table {}: exiting, no data found in row {}", sourceTable, rowKeyByteString);
-                    return;
+        if(threads < 1 || batchSize < 1 || scanBatch < 1 || maxPutBytes < 1) {
+            System.err.println("ERROR! --threads, --batchSize, --scanBatch and --maxPutBytes must be positive");
+            printUsageAndDie();
+        }
+
+        Configuration conf = getConf();
+        CopyStats stats = new CopyStats();
+        long start = System.currentTimeMillis();
+        Path restoredSnapshot = null;
+        try(Connection connection = ConnectionFactory.createConnection(conf)) {
+            LOG.info("dest table {}: override timestamp: {}", destTable, override);
+            if(override) {
+                LOG.info("dest table {}: using timestamp: {}", destTable, timestampToUse);
+            }
+            byte[][] destStartKeys;
+            try(RegionLocator locator = connection.getRegionLocator(TableName.valueOf(destTable))) {
+                destStartKeys = locator.getStartKeys();
+            }
+            List<Callable<Void>> tasks = new ArrayList<>();
+            BufferedMutatorParams params = new BufferedMutatorParams(TableName.valueOf(destTable))
+                    .listener((e, mutator) -> onWriteFailure(e, stats));
+            try(BufferedMutator dest = connection.getBufferedMutator(params)) {
+                final String source = sourceTable;
+                final boolean overrideTimestamp = override;
+                final long timestamp = timestampToUse;
+                final int caching = batchSize;
+                final int cellsPerScan = scanBatch;
+                final long putBytes = maxPutBytes;
+                Function<Table, RowCopier> newCopier = t -> new RowCopier(t, dest, overrideTimestamp, timestamp,
+                        cellsPerScan, putBytes, stats);
+                byte[] rangeStart = startRow == null ? new byte[0] : Bytes.toBytesBinary(startRow);
+                byte[] rangeStop = stopRow == null ? new byte[0] : Bytes.toBytesBinary(stopRow);
+                List<byte[]> rowKeys = new ArrayList<>();
+                if(!rowKeyByteString.isEmpty()) {
+                    rowKeys.add(Bytes.toBytesBinary(rowKeyByteString));
+                } else if(!rowKeysFile.isEmpty()) {
+                    rowKeys.addAll(readRowKeys(conf, new Path(rowKeysFile)));
                 }
-                try(Table dest = connection.getTable(TableName.valueOf(destTable))) {
-                    LOG.info("dest table {}: override timestamp: {}", destTable, override);
-                    if(override) {
-                        LOG.info("dest table {}: using timestamp: {}", destTable, timestampToUse);
+                if(!sourceSnapshot.isEmpty()) {
+                    restoredSnapshot = new Path(restoreDir, UUID.randomUUID().toString());
+                    byte[][] snapshotStartKeys = restoreSnapshot(conf, sourceSnapshot, restoredSnapshot);
+                    final Path restored = restoredSnapshot;
+                    final String snapshot = sourceSnapshot;
+                    if(rangeMode) {
+                        LOG.info("source snapshot {}: copying key range [{}, {})", sourceSnapshot, startRow, stopRow);
+                        for(byte[][] range : splitByRegions(rangeStart, rangeStop, snapshotStartKeys)) {
+                            tasks.add(() -> copyFromSnapshot(conf, snapshot, restored, newCopier.apply(null),
+                                    range[0], range[1], null, caching));
+                        }
+                    } else {
+                        LOG.info("source snapshot {}: copying {} rows", sourceSnapshot, rowKeys.size());
+                        // one task per batch of a snapshot region, so a task opens only one region
+                        for(List<byte[]> group : groupByRegions(rowKeys, snapshotStartKeys)) {
+                            for(int i = 0; i < group.size(); i += batchSize) {
+                                List<byte[]> chunk = group.subList(i, Math.min(group.size(), i + batchSize));
+                                tasks.add(() -> copyFromSnapshot(conf, snapshot, restored, newCopier.apply(null),
+                                        null, null, chunk, caching));
+                            }
+                        }
+                    }
+                } else if(rangeMode) {
+                    LOG.info("source table {}: copying key range [{}, {})", sourceTable, startRow, stopRow);
+                    for(byte[][] range : splitByRegions(rangeStart, rangeStop, destStartKeys)) {
+                        tasks.add(() -> copy(connection, source, newCopier,
+                                copier -> copier.copyRange(range[0], range[1], caching)));
                     }
-                    CellBuilder cellBuilder = CellBuilderFactory.create(CellBuilderType.DEEP_COPY);
-                    for(Cell cell : cells) {
-                        Put put = new Put(row);
-                        Cell cellToPut = cell;
-                        if(override) {
-                            cellToPut = cellBuilder
-                                    .clear()
-                                    .setRow(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength())
-                                    .setFamily(cell.getFamilyArray(), cell.getFamilyOffset(), cell.getFamilyLength())
-                                    .setQualifier(cell.getQualifierArray(), cell.getQualifierOffset(), cell.getQualifierLength())
-                                    .setTimestamp(timestampToUse)
-                                    .setValue(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength())
-                                    .setType(cell.getType())
-                                    .build();
+                } else {
+                    LOG.info("source table {}: copying {} rows", sourceTable, rowKeys.size());
+                    for(List<byte[]> group : groupByRegions(rowKeys, destStartKeys)) {
+                        for(int i = 0; i < group.size(); i += batchSize) {
+                            List<byte[]> chunk = group.subList(i, Math.min(group.size(), i + batchSize));
+                            if(streamRows) {
+                                tasks.add(() -> copy(connection, source, newCopier,
+                                        copier -> copier.copyRowsStreaming(chunk)));
+                            } else {
+                                tasks.add(() -> copy(connection, source, newCopier,
+                                        copier -> copier.copyRows(chunk)));
+                            }
                         }
-                        put.add(cellToPut);
-                        dest.put(put);
                     }
-                    LOG.info("dest table {}: pushed {} cells", destTable, numberOfCells);
                 }
-                LOG.info("we finished successfully!  {} cells:  {} ---> {}", numberOfCells, sourceTable, destTable);
+                runAll(tasks, threads);
+            }
+        } finally {
+            if(restoredSnapshot != null) {
+                LOG.info("deleting restored snapshot: {}", restoredSnapshot);
+                restoredSnapshot.getFileSystem(conf).delete(restoredSnapshot, true);
             }
-        } catch(Exception e) {
-            LOG.error("unexpected exception", e);
         }
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        LOG.info("copied {} rows ({} cells, {} bytes) in {} ms: {} rows/sec, {} MB/sec, missing rows: {}, failed rows: {}",
+                stats.rows.get(), stats.cells.get(), stats.bytes.get(), elapsed,
+                stats.rows.get() * 1000 / elapsed,
+                String.format("%.2f", stats.bytes.get() * 1000.0 / elapsed / 1024 / 1024),
+                stats.missingRows.get(), stats.failedRows.get());
+        if(stats.failedRows.get() > 0 || stats.unreadableRanges.get() > 0) {
+            LOG.error("failed to copy {} rows and {} unreadable key ranges: {} ---> {}", stats.failedRows.get(),
+                    stats.unreadableRanges.get(), sourceTable.isEmpty() ? sourceSnapshot : sourceTable, destTable);
+            return 1;
+        }
+        LOG.info("we finished successfully!  {} cells:  {} ---> {}", stats.cells.get(),
+                sourceTable.isEmpty() ? sourceSnapshot : sourceTable, destTable);
+        return 0;
+    }
+
+    private interface CopyAction {
+        void copy(RowCopier copier) throws IOException;
     }
 
+    private static Void copy(Connection connection, String sourceTable, Function<Table, RowCopier> newCopier,
+                             CopyAction action) throws IOException {
+        try(Table source = connection.getTable(TableName.valueOf(sourceTable))) {
+            action.copy(newCopier.apply(source));
+        }
+        return null;
+    }
+
+    /**
+     * Restoring the snapshot into the restore dir. Only links to the store files of the snapshot are created,
+     * the data is not copied.
+     * @return the sorted start keys of the regions of the snapshot
+     */
+    static byte[][] restoreSnapshot(Configuration conf, String snapshotName, Path restoreDir) throws IOException {
+        Path rootDir = CommonFSUtils.getRootDir(conf);
+        FileSystem fs = rootDir.getFileSystem(conf);
+        LOG.info("source snapshot {}: restoring into {}", snapshotName, restoreDir);
+        RestoreSnapshotHelper.RestoreMetaChanges meta =
+                RestoreSnapshotHelper.copySnapshotForScanner(conf, fs, rootDir, restoreDir, snapshotName);
+        List<byte[]> startKeys = new ArrayList<>();
+        for(RegionInfo region : meta.getRegionsToAdd()) {
+            // the same regions are skipped by the snapshot scanner
+            if(!(region.isOffline() && (region.isSplit() || region.isSplitParent()))) {
+                startKeys.add(region.getStartKey());
+            }
+        }
+        startKeys.sort(Bytes.BYTES_COMPARATOR);
+        return startKeys.toArray(new byte[0][]);
+    }
+
+    /**
+     * Copying the given sorted rows, or the [startRow, stopRow) key range from the restored snapshot.
+     * The snapshot scanner opens only the regions overlapping with the key range of the scan. The read errors
+     * are handled like with a source table: the key range is copied with copyRange, and if the scan of the rows
+     * fails, the rows not copied yet are copied one-by-one, so only the failing rows are skipped.
+     */
+    static Void copyFromSnapshot(Configuration conf, String snapshotName, Path restoreDir, RowCopier copier,
+                                         byte[] startRow, byte[] stopRow, List<byte[]> rowKeys, int caching) throws IOException {
+        Path rootDir = CommonFSUtils.getRootDir(conf);
+        ScannerFactory scanners = scan -> new TableSnapshotScanner(new Configuration(conf), rootDir, restoreDir,
+                snapshotName, scan, true);
+        if(rowKeys == null) {
+            copier.copyRange(scanners, startRow, stopRow, caching);
+            return null;
+        }
+        List<MultiRowRangeFilter.RowRange> ranges = new ArrayList<>(rowKeys.size());
+        for(byte[] rowKey : rowKeys) {
+            ranges.add(new MultiRowRangeFilter.RowRange(rowKey, true, rowKey, true));
+        }
+        Scan scan = copier.newScan(rowKeys.get(0))
+                .withStopRow(rowKeys.get(rowKeys.size() - 1), true)
+                .setFilter(new MultiRowRangeFilter(ranges))
+                .setCaching(caching);
+        Set<byte[]> copiedRows = new TreeSet<>(Bytes.BYTES_COMPARATOR);
+        copier.resetRows();
+        try(ResultScanner scanner = scanners.open(scan)) {
+            copier.copyResults(scanner, copiedRows);
+        } catch(IOException e) {
+            LOG.warn("snapshot scan of {} rows failed, reading the rows one-by-one", rowKeys.size(), e);
+            copier.uncountIncompleteRow(copiedRows);
+            List<byte[]> remaining = new ArrayList<>(rowKeys.size());
+            for(byte[] rowKey : rowKeys) {
+                if(!copiedRows.contains(rowKey)) {
+                    remaining.add(rowKey);
+                }
+            }
+            copier.copyRowsStreaming(scanners, remaining);
+            return null;
+        }
+        for(byte[] rowKey : rowKeys) {
+            if(!copiedRows.contains(rowKey)) {
+                copier.missing(rowKey);
+            }
+        }
+        return null;
+    }
+
+    private static void runAll(List<Callable<Void>> tasks, int threads) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>(tasks.size());
+            for(Callable<Void> task : tasks) {
+                futures.add(pool.submit(task));
+            }
+            for(Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch(ExecutionException e) {
+                    throw new IOException("unexpected error while copying rows", e.getCause());
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while copying rows", e);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * the failed puts are counted by row, a row can be written with several puts (streaming or --maxPutBytes)
+     */
+    private static void onWriteFailure(RetriesExhaustedWithDetailsException e, CopyStats stats) {
+        for(int i = 0; i < e.getNumExceptions(); i++) {
+            byte[] rowKey = e.getRow(i).getRow();
+            if(stats.failed(rowKey, true)) {
+                LOG.error("dest table: unable to write row {}", Bytes.toStringBinary(rowKey), e.getCause(i));
+            }
+        }
+    }
+
+    /**
+     * Reading row keys from a file, or from all the files of a folder (except the hidden ones, like _SUCCESS
+     * or _checkpoints). Each line contains a row key byte string, optionally followed by a tab and anything
+     * else, so the output of CorruptRowsMR can be used directly. If the folder (or the file itself) is a failure
+     * index written by CorruptRowsMR in aggregate mode, the raw row keys are read from the index instead.
+     * The returned keys are sorted and unique.
+     */
+    static List<byte[]> readRowKeys(Configuration conf, Path path) throws IOException {
+        FileSystem fs = path.getFileSystem(conf);
+        TreeSet<byte[]> rowKeys = new TreeSet<>(Bytes.BYTES_COMPARATOR);
+        boolean isDirectory = fs.getFileStatus(path).isDirectory();
+        Path index = isDirectory ? new Path(path, FailureIndex.INDEX_FILE_NAME) : path;
+        if(index.getName().equals(FailureIndex.INDEX_FILE_NAME) && fs.exists(index)) {
+            try(FailureIndex.Reader reader = new FailureIndex.Reader(conf, index)) {
+                for(FailureIndex.Group group : reader.getGroups()) {
+                    reader.readRows(group, rowKeys::add);
+                }
+            }
+            return new ArrayList<>(rowKeys);
+        }
+        List<Path> files = new ArrayList<>();
+        if(isDirectory) {
+            for(FileStatus file : fs.listStatus(path)) {
+                String name = file.getPath().getName();
+                if(file.isFile() && !name.startsWith("_") && !name.startsWith(".")) {
+                    files.add(file.getPath());
+                }
+            }
+        } else {
+            files.add(path);
+        }
+        for(Path file : files) {
+            try(BufferedReader in = new BufferedReader(new InputStreamReader(fs.open(file), StandardCharsets.UTF_8))) {
+                for(String line = in.readLine(); line != null; line = in.readLine()) {
+                    int tab = line.indexOf('\t');
+                    byte[] rowKey = MRUtil.parseRowKey(tab < 0 ? line : line.substring(0, tab));
+                    if(rowKey != null) {
+                        rowKeys.add(rowKey);
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(rowKeys);
+    }
+
+    /**
+     * @return the index of the region containing the row key, from the sorted start keys of the regions
+     */
+    private static int regionIndex(byte[] rowKey, byte[][] startKeys) {
+        int low = 0;
+        int high = startKeys.length - 1;
+        while(low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if(Bytes.compareTo(startKeys[mid], rowKey) <= 0) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the sorted row keys, grouped by the regions containing them
+     */
+    static List<List<byte[]>> groupByRegions(List<byte[]> sortedRowKeys, byte[][] startKeys) {
+        List<List<byte[]>> groups = new ArrayList<>();
+        int currentRegion = -1;
+        for(byte[] rowKey : sortedRowKeys) {
+            int region = regionIndex(rowKey, startKeys);
+            if(region != currentRegion) {
+                groups.add(new ArrayList<>());
+                currentRegion = region;
+            }
+            groups.get(groups.size() - 1).add(rowKey);
+        }
+        return groups;
+    }
+
+    /**
+     * @return the [start, stop) key range cut at the region boundaries (empty stop key means the end of the table)
+     */
+    static List<byte[][]> splitByRegions(byte[] start, byte[] stop, byte[][] startKeys) {
+        List<byte[][]> ranges = new ArrayList<>();
+        byte[] cursor = start;
+        for(int i = regionIndex(start, startKeys) + 1; i < startKeys.length; i++) {
+            if(stop.length > 0 && Bytes.compareTo(startKeys[i], stop) >= 0) {
+                break;
+            }
+            ranges.add(new byte[][]{cursor, startKeys[i]});
+            cursor = startKeys[i];
+        }
+        ranges.add(new byte[][]{cursor, stop});
+        return ranges;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int errCode = ToolRunner.run(HBaseConfiguration.create(), new CopyRow(), args);
+        System.exit(errCode);
+    }
 
 }
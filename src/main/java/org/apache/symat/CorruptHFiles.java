@@ -0,0 +1,346 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.symat;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.io.HFileLink;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.io.hfile.HFileScanner;
+import org.apache.hadoop.hbase.mob.MobUtils;
+import org.apache.hadoop.hbase.regionserver.StoreFileInfo;
+import org.apache.hadoop.hbase.snapshot.SnapshotDescriptionUtils;
+import org.apache.hadoop.hbase.snapshot.SnapshotReferenceUtil;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.CommonFSUtils;
+import org.apache.hadoop.hbase.util.HFileArchiveUtil;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * this tool reads the store files of a table directly from the file system (without any RegionServer)
+ * and collects all the files which can not be fully read
+ */
+public class CorruptHFiles extends Configured implements Tool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CorruptHFiles.class);
+
+    /**
+     * a store file to check, either a plain file or an HFileLink which needs to be resolved first
+     */
+    static class StoreFileRef {
+        private final String name;
+        private final Path path;
+        private final HFileLink link;
+
+        StoreFileRef(Path path) {
+            this.name = path.toString();
+            this.path = path;
+            this.link = null;
+        }
+
+        StoreFileRef(String name, HFileLink link) {
+            this.name = name;
+            this.path = null;
+            this.link = link;
+        }
+
+        Path resolve(FileSystem fs) throws IOException {
+            return link == null ? path : link.getAvailablePath(fs);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * result of checking a single store file
+     */
+    static class FileCheck {
+        final String file;
+        long length;
+        long entries;
+        byte[] firstRow;
+        byte[] lastRow;
+        Exception error;
+
+        FileCheck(String file) {
+            this.file = file;
+        }
+
+        boolean isCorrupt() {
+            return error != null;
+        }
+    }
+
+    /**
+     * Reading the whole store file sequentially. Opening the reader validates the trailer and loads the
+     * file info and the block indexes, then the scan reads all the data blocks (verifying the block checksums).
+     * At the end we compare the number of cells and the first / last row key with the values from the trailer /
+     * file info.
+     */
+    static FileCheck checkStoreFile(FileSystem fs, StoreFileRef ref, Configuration conf) {
+        FileCheck check = new FileCheck(ref.toString());
+        try {
+            Path path = ref.resolve(fs);
+            check = new FileCheck(path.toString());
+            check.length = fs.getFileStatus(path).getLen();
+            try (HFile.Reader reader = HFile.createReader(fs, path, CacheConfig.DISABLED, true, conf)) {
+                check.firstRow = reader.getFirstRowKey().orElse(null);
+                check.lastRow = reader.getLastRowKey().orElse(null);
+                try (HFileScanner scanner = reader.getScanner(false, false)) {
+                    if (scanner.seekTo()) {
+                        Cell first = scanner.getCell();
+                        if (check.firstRow != null && !CellUtil.matchingRows(first, check.firstRow)) {
+                            throw new IOException("first row in the index (" + Bytes.toStringBinary(check.firstRow)
+                                    + ") does not match the first row in the data blocks ("
+                                    + Bytes.toStringBinary(CellUtil.cloneRow(first)) + ")");
+                        }
+                        Cell last;
+                        do {
+                            last = scanner.getCell();
+                            check.entries++;
+                        } while (scanner.next());
+                        if (check.lastRow != null && !CellUtil.matchingRows(last, check.lastRow)) {
+                            throw new IOException("last row in the file info (" + Bytes.toStringBinary(check.lastRow)
+                                    + ") does not match the last row in the data blocks ("
+                                    + Bytes.toStringBinary(CellUtil.cloneRow(last)) + ")");
+                        }
+                    }
+                }
+                if (check.entries != reader.getEntries()) {
+                    throw new IOException("number of cells in the trailer (" + reader.getEntries()
+                            + ") does not match the number of cells in the data blocks (" + check.entries + ")");
+                }
+            }
+        } catch (Exception e) {
+            check.error = e;
+        }
+        return check;
+    }
+
+    static List<StoreFileRef> collectStoreFiles(FileSystem fs, Path tableDir, Configuration conf) throws IOException {
+        List<StoreFileRef> files = new ArrayList<>();
+        if (!fs.exists(tableDir)) {
+            return files;
+        }
+        for (FileStatus region : fs.listStatus(tableDir)) {
+            if (!region.isDirectory() || region.getPath().getName().startsWith(".")) {
+                continue;
+            }
+            for (FileStatus family : fs.listStatus(region.getPath())) {
+                String familyName = family.getPath().getName();
+                if (!family.isDirectory() || familyName.startsWith(".") || familyName.equals(HConstants.RECOVERED_EDITS_DIR)) {
+                    continue;
+                }
+                for (FileStatus file : fs.listStatus(family.getPath())) {
+                    Path path = file.getPath();
+                    if (!file.isFile() || path.getName().startsWith(".")) {
+                        continue;
+                    }
+                    if (StoreFileInfo.isReference(path)) {
+                        // the referred file is in the parent region, we check it there
+                        LOG.info("skipping reference file: {}", path);
+                    } else if (HFileLink.isHFileLink(path)) {
+                        files.add(new StoreFileRef(path.toString(), HFileLink.buildFromHFileLinkPattern(conf, path)));
+                    } else {
+                        files.add(new StoreFileRef(path));
+                    }
+                }
+            }
+        }
+        return files;
+    }
+
+    static List<StoreFileRef> collectSnapshotFiles(FileSystem fs, Path rootDir, String snapshot, Configuration conf)
+            throws IOException {
+        Path snapshotDir = SnapshotDescriptionUtils.getCompletedSnapshotDir(snapshot, rootDir);
+        TableName tableName = TableName.valueOf(SnapshotDescriptionUtils.readSnapshotInfo(fs, snapshotDir).getTable());
+        List<StoreFileRef> files = new ArrayList<>();
+        SnapshotReferenceUtil.visitReferencedFiles(conf, fs, snapshotDir, (regionInfo, family, storeFile) -> {
+            String fileName = storeFile.getName();
+            if (storeFile.hasReference() || StoreFileInfo.isReference(fileName)) {
+                LOG.info("skipping reference file: {}/{}/{}", regionInfo.getEncodedName(), family, fileName);
+                return;
+            }
+            HFileLink link;
+            if (HFileLink.isHFileLink(fileName)) {
+                link = HFileLink.buildFromHFileLinkPattern(conf, new Path(family, fileName));
+            } else {
+                link = HFileLink.build(conf, tableName, regionInfo.getEncodedName(), family, fileName);
+            }
+            files.add(new StoreFileRef(snapshot + ":" + regionInfo.getEncodedName() + "/" + family + "/" + fileName, link));
+        });
+        return files;
+    }
+
+    private static void printUsageAndDie() {
+        System.err.println("usage: ");
+        System.err.println("  export HBASE_CLASSPATH=./symat-hbase-tools-<version>.jar");
+        System.err.println("  hbase org.apache.symat.CorruptHFiles <options> \n");
+        System.err.println("options:");
+        System.err.println("    --table <ns:table>               : table to check (mandatory, unless --snapshot is used)");
+        System.err.println("    --snapshot <name>                : check the files referenced by this snapshot instead of the table");
+        System.err.println("    --rootDir <path>                 : HBase root dir (default: hbase.rootdir)");
+        System.err.println("    --includeArchive <true|false>    : also check the archived files of the table (default:true)");
+        System.err.println("    --includeMob <true|false>        : also check the MOB files of the table (default:true)");
+        System.err.println("    --threads <n>                    : number of files checked in parallel (default:8)");
+        System.err.println("    --output <file>                  : where to write the results (default: standard output)");
+        System.exit(1);
+    }
+
+    @Override
+    public int run(final String[] args) throws Exception {
+        String table = "";
+        String snapshot = "";
+        String rootDirArg = "";
+        String output = "";
+        boolean includeArchive = true;
+        boolean includeMob = true;
+        int threads = 8;
+        if (args.length % 2 != 0) {
+            printUsageAndDie();
+        }
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--table")) {
+                table = args[++i];
+            } else if (args[i].equals("--snapshot")) {
+                snapshot = args[++i];
+            } else if (args[i].equals("--rootDir")) {
+                rootDirArg = args[++i];
+            } else if (args[i].equals("--includeArchive")) {
+                includeArchive = Boolean.parseBoolean(args[++i]);
+            } else if (args[i].equals("--includeMob")) {
+                includeMob = Boolean.parseBoolean(args[++i]);
+            } else if (args[i].equals("--threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--output")) {
+                output = args[++i];
+            } else {
+                printUsageAndDie();
+            }
+        }
+        if (table.isEmpty() && snapshot.isEmpty()) {
+            System.err.println("missing parameter: --table or --snapshot");
+            printUsageAndDie();
+        }
+        if (threads < 1) {
+            System.err.println("invalid parameter: --threads must be positive");
+            printUsageAndDie();
+        }
+
+        Configuration conf = getConf();
+        Path rootDir = rootDirArg.isEmpty() ? CommonFSUtils.getRootDir(conf) : new Path(rootDirArg);
+        FileSystem fs = rootDir.getFileSystem(conf);
+
+        List<StoreFileRef> files = new ArrayList<>();
+        if (!snapshot.isEmpty()) {
+            files.addAll(collectSnapshotFiles(fs, rootDir, snapshot, conf));
+        } else {
+            TableName tableName = TableName.valueOf(table);
+            files.addAll(collectStoreFiles(fs, CommonFSUtils.getTableDir(rootDir, tableName), conf));
+            if (includeArchive) {
+                files.addAll(collectStoreFiles(fs, HFileArchiveUtil.getTableArchivePath(rootDir, tableName), conf));
+            }
+            if (includeMob) {
+                files.addAll(collectStoreFiles(fs, MobUtils.getMobTableDir(rootDir, tableName), conf));
+            }
+        }
+        LOG.info("checking {} store files using {} threads", files.size(), threads);
+
+        long start = System.currentTimeMillis();
+        List<Future<FileCheck>> futures = new ArrayList<>(files.size());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long corruptFiles = 0;
+        try {
+            for (StoreFileRef file : files) {
+                futures.add(pool.submit(() -> checkStoreFile(fs, file, conf)));
+            }
+            long bytes = 0;
+            try (PrintStream out = openOutput(conf, output)) {
+                for (Future<FileCheck> future : futures) {
+                    FileCheck check;
+                    try {
+                        check = future.get();
+                    } catch (ExecutionException e) {
+                        throw new IOException("unexpected error while checking store files", e.getCause());
+                    }
+                    bytes += check.length;
+                    if (check.isCorrupt()) {
+                        corruptFiles++;
+                        // we print the file, the row key range it covers, exceptionClass and first line of exception message
+                        out.println(check.file
+                                + "\t" + (check.firstRow == null ? "n/a" : Bytes.toStringBinary(check.firstRow))
+                                + "\t" + (check.lastRow == null ? "n/a" : Bytes.toStringBinary(check.lastRow))
+                                + "\t" + RowVerifier.failureMessage(check.error));
+                        LOG.debug("corrupt store file: {}", check.file, check.error);
+                    }
+                }
+            }
+            LOG.info("checked {} store files ({} bytes) in {} ms, found {} corrupt files",
+                    files.size(), bytes, System.currentTimeMillis() - start, corruptFiles);
+        } finally {
+            pool.shutdownNow();
+        }
+        // so the scripts can check the exit code, like with CopyRow and RepairRowsMR
+        return corruptFiles > 0 ? 1 : 0;
+    }
+
+    static PrintStream openOutput(Configuration conf, String output) throws IOException {
+        if (output.isEmpty()) {
+            return new PrintStream(System.out, true, StandardCharsets.UTF_8.name()) {
+                @Override
+                public void close() {
+                    flush();
+                }
+            };
+        }
+        Path path = new Path(output);
+        FSDataOutputStream stream = path.getFileSystem(conf).create(path, false);
+        return new PrintStream(stream, false, StandardCharsets.UTF_8.name());
+    }
+
+    public static void main(String[] args) throws Exception {
+        int errCode = ToolRunner.run(HBaseConfiguration.create(), new CorruptHFiles(), args);
+        System.exit(errCode);
+    }
+}
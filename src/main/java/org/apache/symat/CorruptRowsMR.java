@@ -19,36 +19,85 @@ package org.apache.symat;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.RegionMetrics;
+import org.apache.hadoop.hbase.ServerName;
 import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.AsyncConnection;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.ConnectionFactory;
-import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.RegionInfo;
+import org.apache.hadoop.hbase.client.RegionLocator;
 import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.codec.KeyValueCodecWithTags;
 import org.apache.hadoop.hbase.filter.FilterList;
 import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
 import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.mapred.TableInputFormat;
 import org.apache.hadoop.hbase.mapred.TableMap;
+import org.apache.hadoop.hbase.mapred.TableSplit;
+import org.apache.hadoop.hbase.mapreduce.RegionSizeCalculator;
+import org.apache.hadoop.hbase.mob.MobConstants;
+import org.apache.hadoop.hbase.mob.MobUtils;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.CommonFSUtils;
+import org.apache.hadoop.hbase.util.HFileArchiveUtil;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileAlreadyExistsException;
+import org.apache.hadoop.mapred.FileOutputCommitter;
 import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.InputSplit;
 import org.apache.hadoop.mapred.JobClient;
 import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.JobID;
+import org.apache.hadoop.mapred.MapRunnable;
 import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reducer;
 import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.RunningJob;
+import org.apache.hadoop.mapred.TaskAttemptID;
+import org.apache.hadoop.mapred.TaskID;
 import org.apache.hadoop.mapred.TextOutputFormat;
+import org.apache.hadoop.mapred.lib.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.TaskType;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
@@ -58,11 +107,74 @@ import java.util.stream.Collectors;
 public class CorruptRowsMR extends Configured implements Tool {
 
     private static final Logger LOG = LoggerFactory.getLogger(CorruptRowsMR.class);
+    private static final byte[] NEW_LINE = {'\n'};
 
-    private enum Counters {
+    static final String BATCH_SIZE_KEY = "corruptRowsMR.batchSize";
+    static final String MAX_IN_FLIGHT_KEY = "corruptRowsMR.maxInFlight";
+    static final String SPLITS_PER_REGION_KEY = "corruptRowsMR.splitsPerRegion";
+    static final String TARGET_SPLIT_SIZE_KEY = "corruptRowsMR.targetSplitSize";
+    static final String MOB_AWARE_KEY = "corruptRowsMR.mobAware";
+    static final String MOB_CACHE_SIZE_KEY = "corruptRowsMR.mobCacheSize";
+    static final String SCAN_VERIFY_KEY = "corruptRowsMR.scanVerify";
+    static final String SCAN_CACHING_KEY = "corruptRowsMR.scanCaching";
+    static final String CHECKPOINT_INTERVAL_KEY = "corruptRowsMR.checkpointInterval";
+    static final String RESUME_FROM_KEY = "corruptRowsMR.resumeFrom";
+    static final String SINCE_KEY = "corruptRowsMR.since";
+    static final String MAX_ROWS_PER_SEC_KEY = "corruptRowsMR.maxRowsPerSec";
+    static final String MAX_BYTES_PER_SEC_KEY = "corruptRowsMR.maxBytesPerSec";
+    static final String TARGET_LATENCY_MS_KEY = "corruptRowsMR.targetLatencyMs";
+    static final String SLOW_ROWS_KEY = "corruptRowsMR.slowRows";
+    static final String RUNNING_MAP_LIMIT_KEY = "mapreduce.job.running.map.limit";
+    static final String AGGREGATE_KEY = "corruptRowsMR.aggregate";
+
+    static final String COUNTERS_FILE_NAME = "_counters";
+
+    /**
+     * upper limit for the number of sub-splits per region, when the split count is derived from the region size
+     */
+    private static final int MAX_SPLITS_PER_REGION = 64;
+
+    enum Counters {
         TOTAL_ROWS,
         SUCCESS_ROWS,
         FAILED_ROWS,
+        MOB_FILES_CHECKED,
+        MOB_FILES_FAILED,
+        UNREADABLE_RANGES,
+        THROTTLED_MILLIS,
+        THROTTLE_BACKOFFS,
+        ACTIVE_MILLIS,
+    }
+
+    /**
+     * connection shared by the record reader and the verifier of the task, see acquireConnection()
+     */
+    private static Connection sharedConnection;
+    private static int sharedConnectionRefs;
+
+    /**
+     * Returning the connection shared within the JVM, creating it if needed. The tasks running in the same JVM
+     * belong to the same job, so they can use the same connection. It must be released by releaseConnection().
+     */
+    static synchronized Connection acquireConnection(Configuration conf) throws IOException {
+        if (sharedConnection == null) {
+            sharedConnection = ConnectionFactory.createConnection(conf);
+        }
+        sharedConnectionRefs++;
+        return sharedConnection;
+    }
+
+    /**
+     * the shared connection is closed when it is released by its last user
+     */
+    static synchronized void releaseConnection(Connection connection) throws IOException {
+        if (connection != sharedConnection) {
+            throw new IllegalStateException("releasing a connection which is not shared");
+        }
+        if (--sharedConnectionRefs == 0) {
+            sharedConnection = null;
+            connection.close();
+        }
     }
 
     static class RowFilterTableInputFormat extends TableInputFormat {
@@ -75,6 +187,15 @@ public class CorruptRowsMR extends Configured implements Tool {
             setRowFilter(filters);
         }
 
+        /**
+         * The super class opens the connection here, but it is closed only by its own record reader. The
+         * scan-verify and incremental modes use our own record readers, so we open the connection only
+         * when the super class needs it (see initialize).
+         */
+        @Override
+        public void configure(JobConf job) {
+        }
+
         @Override
         protected void initialize(JobConf job) throws IOException {
             String colArg = job.get(COLUMN_LIST);
@@ -88,101 +209,646 @@ public class CorruptRowsMR extends Configured implements Tool {
             initializeTable(connection, TableName.valueOf(job.get("corruptRowsMR.table")));
         }
 
-    }
+        /**
+         * By default the old mapred TableInputFormat creates at most numSplits splits, each covering one or more
+         * regions. If --splitsPerRegion or --targetSplitSize is used, then we create one or more splits per region
+         * instead, by cutting the key range of each region into smaller pieces. The number of pieces is either
+         * fixed or derived from the size of the store files of the region. The splits keep the location of the
+         * region, so the mappers can still run close to the RegionServers.
+         * When resuming a previous run, the key ranges already verified are removed from the splits. In
+         * incremental mode, the regions without any change since the given time are skipped.
+         */
+        @Override
+        public InputSplit[] getSplits(JobConf job, int numSplits) throws IOException {
+            int splitsPerRegion = job.getInt(SPLITS_PER_REGION_KEY, 0);
+            long targetSplitSize = job.getLong(TARGET_SPLIT_SIZE_KEY, 0);
+            long since = job.getLong(SINCE_KEY, 0);
+            String resumeFrom = job.get(RESUME_FROM_KEY, "");
+            if (splitsPerRegion <= 0 && targetSplitSize <= 0 && since <= 0 && resumeFrom.isEmpty()) {
+                try {
+                    return super.getSplits(job, numSplits);
+                } finally {
+                    closeTable();
+                }
+            }
+            try (Connection connection = ConnectionFactory.createConnection(job)) {
+                return regionSplits(job, connection).toArray(new InputSplit[0]);
+            }
+        }
 
-    static class MyMapper implements TableMap<Text, Text> {
-        private static final Logger LOG = LoggerFactory.getLogger(MyMapper.class);
-        private Table table;
-        private Connection connection;
-        private JobConf jobConf;
-        private String tableName;
-        private boolean traceCells;
+        /**
+         * @return one or more splits for each region of the table, see {@link #getSplits(JobConf, int)}
+         */
+        static List<InputSplit> regionSplits(JobConf job, Connection connection) throws IOException {
+            int splitsPerRegion = job.getInt(SPLITS_PER_REGION_KEY, 0);
+            long targetSplitSize = job.getLong(TARGET_SPLIT_SIZE_KEY, 0);
+            long since = job.getLong(SINCE_KEY, 0);
+            String resumeFrom = job.get(RESUME_FROM_KEY, "");
+            List<byte[][]> verified = Collections.emptyList();
+            if (!resumeFrom.isEmpty()) {
+                verified = Checkpoints.verifiedRanges(Checkpoints.read(job, new Path(resumeFrom)));
+                LOG.info("skipping {} key ranges verified by the previous run", verified.size());
+            }
+            TableName tableName = TableName.valueOf(job.get("corruptRowsMR.table"));
+            List<InputSplit> splits = new ArrayList<>();
+            try (RegionLocator regionLocator = connection.getRegionLocator(tableName);
+                 Table table = connection.getTable(tableName);
+                 Admin admin = connection.getAdmin()) {
+                RegionSizeCalculator sizeCalculator = null;
+                if (targetSplitSize > 0) {
+                    sizeCalculator = new RegionSizeCalculator(regionLocator, admin);
+                }
+                List<HRegionLocation> locations = regionLocator.getAllRegionLocations();
+                Set<String> changedRegions = null;
+                if (since > 0) {
+                    changedRegions = changedRegions(job, admin, tableName, locations, since);
+                }
+                for (HRegionLocation location : locations) {
+                    RegionInfo region = location.getRegion();
+                    if (changedRegions != null && !changedRegions.contains(region.getEncodedName())) {
+                        continue;
+                    }
+                    int pieces = splitsPerRegion;
+                    if (sizeCalculator != null) {
+                        int maxPieces = splitsPerRegion > 0 ? splitsPerRegion : MAX_SPLITS_PER_REGION;
+                        long regionSize = sizeCalculator.getRegionSize(region.getRegionName());
+                        pieces = (int) Math.min(maxPieces, (regionSize + targetSplitSize - 1) / targetSplitSize);
+                    }
+                    String host = location.getServerName() == null ? "" : location.getHostname();
+                    byte[][] keys = MRUtil.splitRegion(table, region.getStartKey(), region.getEndKey(), pieces);
+                    for (int i = 0; i < keys.length - 1; i++) {
+                        for (byte[][] range : Checkpoints.subtract(keys[i], keys[i + 1], verified)) {
+                            splits.add(new TableSplit(tableName, range[0], range[1], host));
+                        }
+                    }
+                }
+            }
+            LOG.info("created {} splits for table {}", splits.size(), tableName);
+            return splits;
+        }
+
+        /**
+         * @return the encoded names of the regions having data in the memstore or store files modified after
+         * the given time, or null if the store files are not accessible
+         */
+        private static Set<String> changedRegions(Configuration conf, Admin admin, TableName tableName,
+                                                  List<HRegionLocation> locations, long since) throws IOException {
+            Set<String> changed = new HashSet<>();
+            Set<ServerName> servers = new HashSet<>();
+            for (HRegionLocation location : locations) {
+                if (location.getServerName() != null) {
+                    servers.add(location.getServerName());
+                }
+            }
+            for (ServerName server : servers) {
+                for (RegionMetrics metrics : admin.getRegionMetrics(server, tableName)) {
+                    if (metrics.getMemStoreSize().get() > 0) {
+                        changed.add(RegionInfo.encodeRegionName(metrics.getRegionName()));
+                    }
+                }
+            }
+            try {
+                Path rootDir = CommonFSUtils.getRootDir(conf);
+                FileSystem fs = rootDir.getFileSystem(conf);
+                Path tableDir = CommonFSUtils.getTableDir(rootDir, tableName);
+                for (HRegionLocation location : locations) {
+                    String region = location.getRegion().getEncodedName();
+                    if (!changed.contains(region) && modifiedSince(fs, new Path(tableDir, region), since)) {
+                        changed.add(region);
+                    }
+                }
+            } catch (IOException e) {
+                LOG.warn("unable to check the store files of table {}, verifying all regions", tableName, e);
+                return null;
+            }
+            LOG.info("{} of {} regions changed since {}", changed.size(), locations.size(), since);
+            return changed;
+        }
 
-        public MyMapper() {
+        private static boolean modifiedSince(FileSystem fs, Path regionDir, long since) throws IOException {
+            for (FileStatus family : fs.listStatus(regionDir)) {
+                String name = family.getPath().getName();
+                if (!family.isDirectory() || name.startsWith(".") || name.equals(HConstants.RECOVERED_EDITS_DIR)) {
+                    continue;
+                }
+                for (FileStatus file : fs.listStatus(family.getPath())) {
+                    if (file.getModificationTime() >= since) {
+                        return true;
+                    }
+                }
+            }
+            return false;
         }
 
-        private synchronized Connection initOrGetConnection() throws IOException {
-            if (connection == null) {
-                Configuration conf = HBaseConfiguration.create(jobConf);
-                connection = ConnectionFactory.createConnection(conf);
+        @Override
+        public RecordReader<ImmutableBytesWritable, Result> getRecordReader(InputSplit split, JobConf job,
+                                                                            Reporter reporter) throws IOException {
+            if (job.getBoolean(SCAN_VERIFY_KEY, false)) {
+                // in scan-verify mode the rows are read by the VerifyRunner, we don't want to open a scanner here
+                return new ScannerRecordReader(null, null);
             }
-            if (connection == null) {
-                throw new IllegalStateException("unable to initialize HBase connection");
+            long since = job.getLong(SINCE_KEY, 0);
+            if (since <= 0) {
+                return super.getRecordReader(split, job, reporter);
+            }
+            // the mapred TableRecordReader doesn't support time ranges, so we open the scanner ourselves
+            Connection connection = acquireConnection(job);
+            try {
+                Table table = connection.getTable(TableName.valueOf(job.get("corruptRowsMR.table")));
+                return new ScannerRecordReader(connection, table.getScanner(rowKeyScan(job, (TableSplit) split)));
+            } catch (IOException e) {
+                releaseConnection(connection);
+                throw e;
             }
-            return connection;
         }
 
-        private synchronized Table initOrGetTable() throws IOException {
-            if (table == null) {
-                table = initOrGetConnection().getTable(TableName.valueOf(tableName));
+        /**
+         * @return scan returning only the row keys of the split (of the rows changed since the given time,
+         * in incremental mode)
+         */
+        static Scan rowKeyScan(JobConf job, TableSplit split) throws IOException {
+            long since = job.getLong(SINCE_KEY, 0);
+            Scan scan = new Scan()
+                    .withStartRow(split.getStartRow())
+                    .setCacheBlocks(false)
+                    .setCaching(job.getInt(SCAN_CACHING_KEY, 100))
+                    .setFilter(new FilterList(FilterList.Operator.MUST_PASS_ALL, new FirstKeyOnlyFilter(), new KeyOnlyFilter()));
+            if (since > 0) {
+                scan.setTimeRange(since, HConstants.LATEST_TIMESTAMP);
             }
-            if (connection == null) {
-                throw new IllegalStateException("unable to initialize HBase table");
+            if (split.getEndRow().length > 0) {
+                scan.withStopRow(split.getEndRow());
             }
-            return table;
+            scan.setAttribute(MobConstants.MOB_SCAN_RAW, RowVerifier.MOB_SCAN_RAW_VALUE);
+            return scan;
         }
 
+    }
+
+    /**
+     * record reader returning the rows of a scanner (or nothing, if there is no scanner). The connection of the
+     * scanner (if any) is the shared connection, released when the record reader is closed.
+     */
+    static class ScannerRecordReader implements RecordReader<ImmutableBytesWritable, Result> {
+        private final Connection connection;
+        private final ResultScanner scanner;
+
+        ScannerRecordReader(Connection connection, ResultScanner scanner) {
+            this.connection = connection;
+            this.scanner = scanner;
+        }
 
         @Override
-        public void map(ImmutableBytesWritable mapKey, Result result,
-                        OutputCollector<Text, Text> outputCollector, Reporter reporter) throws IOException {
+        public boolean next(ImmutableBytesWritable key, Result value) throws IOException {
+            Result r = scanner == null ? null : scanner.next();
+            if (r == null) {
+                return false;
+            }
+            key.set(r.getRow());
+            value.copyFrom(r);
+            return true;
+        }
 
-            byte[] rowKey = mapKey.get();
-            Table t = initOrGetTable();
-            reporter.incrCounter(Counters.TOTAL_ROWS, 1);
+        @Override
+        public ImmutableBytesWritable createKey() {
+            return new ImmutableBytesWritable();
+        }
 
-            try {
-                Result r = t.get(new Get(rowKey));
-                reporter.incrCounter(Counters.SUCCESS_ROWS, 1);
-                if (r != null && r.listCells() != null && traceCells) {
-                    LOG.info("------- row: {}, number of cells: {}", Bytes.toStringBinary(rowKey), r.listCells().size());
-                    for (Cell cell : r.listCells()) {
-                        LOG.info("Cell: {} - value: {}",
-                                cell.toString(),
-                                Bytes.toStringBinary(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength()));
+        @Override
+        public Result createValue() {
+            return new Result();
+        }
+
+        @Override
+        public long getPos() {
+            return 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (scanner != null) {
+                scanner.close();
+            }
+            if (connection != null) {
+                releaseConnection(connection);
+            }
+        }
+
+        @Override
+        public float getProgress() {
+            return 0;
+        }
+    }
+
+    /**
+     * Checking the MOB files referenced by the MOB reference cells. Each MOB file is checked only once
+     * (reading the whole file directly from the file system), and the result is cached, so all the other rows
+     * referring to the same file can be verified without fetching the MOB values through the RegionServers.
+     */
+    static class MobFileChecker {
+        private static final String HEALTHY = "";
+        private final Configuration conf;
+        private final FileSystem fs;
+        private final TableName tableName;
+        private final Map<String, String> cache;
+
+        MobFileChecker(Configuration conf, TableName tableName, final int maxCacheSize) throws IOException {
+            this.conf = conf;
+            this.fs = CommonFSUtils.getRootDir(conf).getFileSystem(conf);
+            this.tableName = tableName;
+            this.cache = new LinkedHashMap<String, String>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > maxCacheSize;
+                }
+            };
+        }
+
+        /**
+         * @return the failure message for the first broken MOB reference in the row, or null if all are fine
+         */
+        String check(Result r, Reporter reporter) {
+            if (r == null || r.isEmpty()) {
+                return null;
+            }
+            for (Cell cell : r.rawCells()) {
+                if (!MobUtils.isMobReferenceCell(cell)) {
+                    continue;
+                }
+                if (!MobUtils.hasValidMobRefCellValue(cell)) {
+                    return RowVerifier.failureMessage(new IOException("invalid MOB reference cell: " + cell));
+                }
+                String fileName = MobUtils.getMobFileName(cell);
+                String status = cache.get(fileName);
+                if (status == null) {
+                    String family = Bytes.toString(cell.getFamilyArray(), cell.getFamilyOffset(), cell.getFamilyLength());
+                    status = checkFile(family, fileName);
+                    cache.put(fileName, status);
+                    reporter.incrCounter(Counters.MOB_FILES_CHECKED, 1);
+                    if (!status.isEmpty()) {
+                        reporter.incrCounter(Counters.MOB_FILES_FAILED, 1);
                     }
                 }
-            } catch (Exception e) {
-                reporter.incrCounter(Counters.FAILED_ROWS, 1);
-                if (traceCells) {
-                    LOG.error("exception with type: " + e.getClass().getSimpleName() + " and message: " + e.getMessage(), e);
+                if (!status.isEmpty()) {
+                    return status;
                 }
-                String message = e.getMessage();
-                if (message != null && !message.trim().isEmpty()) {
-                    String[] parts = e.getMessage().split("\r\n|\r|\n", 2);
-                    if (parts != null && parts.length >= 1) {
-                        message = parts[0];
-                    } else {
-                        message = "n/a";
+            }
+            return null;
+        }
+
+        /**
+         * the MOB file can be either in the MOB dir or (after MOB compaction) in the archive dir of the MOB region
+         */
+        private String checkFile(String family, String fileName) {
+            try {
+                Path mobPath = new Path(MobUtils.getMobFamilyPath(conf, tableName, family), fileName);
+                Path archivePath = new Path(HFileArchiveUtil.getStoreArchivePath(conf, tableName,
+                        MobUtils.getMobRegionInfo(tableName).getEncodedName(), family), fileName);
+                for (Path path : new Path[]{mobPath, archivePath}) {
+                    if (fs.exists(path)) {
+                        CorruptHFiles.FileCheck check =
+                                CorruptHFiles.checkStoreFile(fs, new CorruptHFiles.StoreFileRef(path), conf);
+                        if (check.isCorrupt()) {
+                            LOG.warn("corrupt MOB file: {}", path, check.error);
+                            return RowVerifier.failureMessage(check.error);
+                        }
+                        return HEALTHY;
                     }
-                } else {
-                    message = "n/a";
                 }
-                message = e.getClass().getSimpleName() + ", message: " + message;
-                // we print rowKey, exceptionClass and first line of exception message
-                outputCollector.collect(new Text(Bytes.toStringBinary(rowKey)), new Text(message));
+                LOG.warn("missing MOB file: {}", mobPath);
+                return RowVerifier.failureMessage(new FileNotFoundException("File does not exist: " + mobPath));
+            } catch (IOException e) {
+                LOG.warn("unable to check MOB file: {} of family {}", fileName, family, e);
+                return RowVerifier.failureMessage(e);
             }
+        }
+    }
 
+    /**
+     * Map runner of the job. Similar to the default MapRunner, but it lets the verifier know about the boundaries
+     * of the split (needed for the checkpoints), and in scan-verify mode, instead of iterating through the
+     * row keys coming from the record reader, the verifier reads the full rows of the split with a scanner.
+     */
+    static class VerifyRunner implements MapRunnable<ImmutableBytesWritable, Result, Text, Text> {
+        private JobConf jobConf;
+
+        @Override
+        public void configure(JobConf jobConf) {
+            this.jobConf = jobConf;
         }
 
         @Override
-        public void close() throws IOException {
-            if (table != null) {
-                table.close();
+        public void run(RecordReader<ImmutableBytesWritable, Result> input, OutputCollector<Text, Text> output,
+                        Reporter reporter) throws IOException {
+            RowVerifier verifier = new RowVerifier(jobConf, null, null, output, reporter);
+            try {
+                verifier.verifySplit((TableSplit) reporter.getInputSplit(), input);
+            } finally {
+                verifier.close();
             }
-            if (connection != null) {
-                connection.close();
+        }
+    }
+
+    /**
+     * Placeholder, as initTableMapJob needs a mapper: the job always runs the VerifyRunner, which does the work.
+     */
+    static class MyMapper implements TableMap<Text, Text> {
+
+        @Override
+        public void map(ImmutableBytesWritable mapKey, Result result,
+                        OutputCollector<Text, Text> outputCollector, Reporter reporter) {
+            throw new UnsupportedOperationException("the rows are verified by the VerifyRunner");
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void configure(JobConf jobConf) {
+        }
+    }
+
+    /**
+     * Combiner of the aggregate mode, joining the row keys of the same failure signature with new lines, so the
+     * signature is not repeated for every row in the map output. The row keys are byte strings, where a new line
+     * is always escaped.
+     */
+    static class FailureRowsCombiner implements Reducer<Text, Text, Text, Text> {
+        private static final int MAX_JOINED_BYTES = 1024 * 1024;
+        private final Text joined = new Text();
+
+        @Override
+        public void reduce(Text signature, Iterator<Text> rows, OutputCollector<Text, Text> output,
+                           Reporter reporter) throws IOException {
+            joined.clear();
+            while (rows.hasNext()) {
+                Text row = rows.next();
+                if (joined.getLength() > 0 && joined.getLength() + row.getLength() >= MAX_JOINED_BYTES) {
+                    output.collect(signature, joined);
+                    joined.clear();
+                }
+                if (joined.getLength() > 0) {
+                    joined.append(NEW_LINE, 0, 1);
+                }
+                joined.append(row.getBytes(), 0, row.getLength());
+            }
+            if (joined.getLength() > 0) {
+                output.collect(signature, joined);
             }
         }
 
+        @Override
+        public void configure(JobConf jobConf) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * The single reducer of the aggregate mode, writing the failure index and its summary as side-effect files,
+     * so they are moved into the output dir only if the reducer succeeds.
+     */
+    static class FailureIndexReducer implements Reducer<Text, Text, Text, Text> {
+        private JobConf jobConf;
+        private FailureIndex.Writer index;
+
         @Override
         public void configure(JobConf jobConf) {
             this.jobConf = jobConf;
-            this.tableName = jobConf.get("corruptRowsMR.table");
-            this.traceCells = jobConf.getBoolean("corruptRowsMR.traceCells", false);
+        }
+
+        private FailureIndex.Writer initOrGetIndex() throws IOException {
+            if (index == null) {
+                index = new FailureIndex.Writer(jobConf,
+                        new Path(FileOutputFormat.getWorkOutputPath(jobConf), FailureIndex.INDEX_FILE_NAME));
+            }
+            return index;
+        }
+
+        @Override
+        public void reduce(Text signature, Iterator<Text> rows, OutputCollector<Text, Text> output,
+                           Reporter reporter) throws IOException {
+            FailureIndex.Writer writer = initOrGetIndex();
+            writer.startGroup(signature.toString());
+            while (rows.hasNext()) {
+                // one or more row keys, joined by the combiner
+                String joined = rows.next().toString();
+                int start = 0;
+                while (start < joined.length()) {
+                    int end = joined.indexOf('\n', start);
+                    if (end < 0) {
+                        end = joined.length();
+                    }
+                    writer.addRow(Bytes.toBytesBinary(joined.substring(start, end)));
+                    start = end + 1;
+                }
+                reporter.progress();
+            }
+            writer.endGroup();
+        }
+
+        @Override
+        public void close() throws IOException {
+            // the index is written even without failures, so the readers can tell there was nothing to report
+            FailureIndex.Writer writer = initOrGetIndex();
+            writer.close();
+            FailureIndex.writeSummary(jobConf,
+                    new Path(FileOutputFormat.getWorkOutputPath(jobConf), FailureIndex.SUMMARY_FILE_NAME),
+                    writer.getGroups());
+        }
+    }
+
+    /**
+     * Reporter of a worker of the local runner, collecting the counters of the worker.
+     */
+    static class LocalReporter implements Reporter {
+        private final org.apache.hadoop.mapred.Counters counters = new org.apache.hadoop.mapred.Counters();
+
+        @Override
+        public void setStatus(String status) {
+        }
+
+        @Override
+        public org.apache.hadoop.mapred.Counters.Counter getCounter(Enum<?> name) {
+            return counters.findCounter(name);
+        }
+
+        @Override
+        public org.apache.hadoop.mapred.Counters.Counter getCounter(String group, String name) {
+            return counters.findCounter(group, name);
+        }
+
+        @Override
+        public void incrCounter(Enum<?> key, long amount) {
+            counters.incrCounter(key, amount);
+        }
+
+        @Override
+        public void incrCounter(String group, String counter, long amount) {
+            counters.incrCounter(group, counter, amount);
+        }
+
+        @Override
+        public InputSplit getInputSplit() throws UnsupportedOperationException {
+            throw new UnsupportedOperationException("the local runner has no input split");
+        }
+
+        @Override
+        public float getProgress() {
+            return 0;
+        }
+
+        @Override
+        public void progress() {
+        }
+    }
+
+    /**
+     * Running the verification in this JVM, without submitting a job to YARN. The splits are the same as the
+     * splits of the job (but at least one per region), and they are processed by a pool of worker threads
+     * sharing a single HBase connection. Each worker writes its failed rows into its own part file, so the
+     * output dir (local or HDFS) gets the same content as with the MR job, plus a _counters file containing
+     * the counters of the run.
+     *
+     * @return the counters of all the workers
+     */
+    static org.apache.hadoop.mapred.Counters runLocal(JobConf jobConf, int threads) throws IOException {
+        Path output = FileOutputFormat.getOutputPath(jobConf);
+        FileSystem fs = output.getFileSystem(jobConf);
+        if (fs.exists(output)) {
+            throw new FileAlreadyExistsException("Output directory " + output + " already exists");
+        }
+        fs.mkdirs(output);
+        String resumeFrom = jobConf.get(RESUME_FROM_KEY, "");
+        if (!resumeFrom.isEmpty()) {
+            Checkpoints.carryOver(jobConf, new Path(resumeFrom), output);
+        }
+        TableName tableName = TableName.valueOf(jobConf.get("corruptRowsMR.table"));
+        boolean scanVerify = jobConf.getBoolean(SCAN_VERIFY_KEY, false);
+        org.apache.hadoop.mapred.Counters counters = new org.apache.hadoop.mapred.Counters();
+        long start = System.currentTimeMillis();
+        // a new job id for each run (like the LocalJobRunner does), otherwise the tasks of a resumed run would
+        // take the checkpoints carried over from the previous run for the checkpoints of their own earlier attempts
+        JobID jobId = new JobID("local" + start, 1);
+        try (Connection connection = ConnectionFactory.createConnection(jobConf);
+             AsyncConnection asyncConnection = jobConf.getInt(MAX_IN_FLIGHT_KEY, 0) > 0
+                     ? RowVerifier.createAsyncConnection(jobConf) : null) {
+            List<InputSplit> splits = RowFilterTableInputFormat.regionSplits(jobConf, connection);
+            int workerCount = Math.max(1, Math.min(threads, splits.size()));
+            // the rate limits are split between the workers, the same way as between the running mappers
+            JobConf workerConf = new JobConf(jobConf);
+            workerConf.setInt(RUNNING_MAP_LIMIT_KEY, workerCount);
+            LOG.info("verifying {} splits of table {} using {} threads", splits.size(), tableName, workerCount);
+
+            AtomicInteger nextSplit = new AtomicInteger();
+            AtomicBoolean failed = new AtomicBoolean();
+            List<Callable<org.apache.hadoop.mapred.Counters>> workers = new ArrayList<>(workerCount);
+            for (int w = 0; w < workerCount; w++) {
+                Path partFile = new Path(output, String.format("part-%05d", w));
+                workers.add(() -> {
+                    LocalReporter reporter = new LocalReporter();
+                    try (Table table = connection.getTable(tableName);
+                         BufferedWriter out = new BufferedWriter(new OutputStreamWriter(fs.create(partFile, false),
+                                 StandardCharsets.UTF_8))) {
+                        OutputCollector<Text, Text> collector = (key, value) -> {
+                            out.write(key + "\t" + value);
+                            out.newLine();
+                        };
+                        for (int i = nextSplit.getAndIncrement(); i < splits.size() && !failed.get();
+                             i = nextSplit.getAndIncrement()) {
+                            TableSplit split = (TableSplit) splits.get(i);
+                            JobConf splitConf = new JobConf(workerConf);
+                            // the checkpoints and the stats files are named after the task, like in the MR job
+                            splitConf.set("mapreduce.task.attempt.id",
+                                    new TaskAttemptID(new TaskID(jobId, TaskType.MAP, i), 0).toString());
+                            splitConf.setInt("mapreduce.task.partition", i);
+                            splitConf.setBoolean("mapreduce.task.ismap", true);
+                            splitConf.set("mapreduce.task.output.dir", output.toString());
+                            RowVerifier verifier = new RowVerifier(splitConf, connection, asyncConnection, collector, reporter);
+                            try {
+                                // the mapred RecordReader is not AutoCloseable
+                                RecordReader<ImmutableBytesWritable, Result> input = scanVerify
+                                        ? new ScannerRecordReader(null, null)
+                                        : new ScannerRecordReader(null, table.getScanner(
+                                                RowFilterTableInputFormat.rowKeyScan(splitConf, split)));
+                                try {
+                                    verifier.verifySplit(split, input);
+                                } finally {
+                                    input.close();
+                                }
+                            } finally {
+                                verifier.close();
+                            }
+                            LOG.info("verified split {} of {}: [{}, {})", i + 1, splits.size(),
+                                    Bytes.toStringBinary(split.getStartRow()), Bytes.toStringBinary(split.getEndRow()));
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        failed.set(true);
+                        throw e;
+                    }
+                    return reporter.counters;
+                });
+            }
+            ExecutorService pool = Executors.newFixedThreadPool(workerCount);
+            try {
+                List<Future<org.apache.hadoop.mapred.Counters>> futures = new ArrayList<>(workerCount);
+                for (Callable<org.apache.hadoop.mapred.Counters> worker : workers) {
+                    futures.add(pool.submit(worker));
+                }
+                for (Future<org.apache.hadoop.mapred.Counters> future : futures) {
+                    try {
+                        counters.incrAllCounters(future.get());
+                    } catch (ExecutionException e) {
+                        throw new IOException("unable to verify the rows of table " + tableName, e.getCause());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("interrupted while verifying the rows of table " + tableName);
+                    }
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        writeCounters(jobConf, new Path(output, COUNTERS_FILE_NAME), counters);
+        fs.create(new Path(output, FileOutputCommitter.SUCCEEDED_FILE_NAME), false).close();
+        LOG.info("verified table {} in {} ms, {}", tableName, System.currentTimeMillis() - start, counters);
+        return counters;
+    }
+
+    /**
+     * writing the counters as group, name and value separated by tabs
+     */
+    private static void writeCounters(Configuration conf, Path file, org.apache.hadoop.mapred.Counters counters)
+            throws IOException {
+        FileSystem fs = file.getFileSystem(conf);
+        try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(fs.create(file, false), StandardCharsets.UTF_8))) {
+            for (org.apache.hadoop.mapred.Counters.Group group : counters) {
+                for (org.apache.hadoop.mapred.Counters.Counter counter : group) {
+                    out.write(group.getName() + "\t" + counter.getName() + "\t" + counter.getValue());
+                    out.newLine();
+                }
+            }
         }
     }
 
+    /**
+     * printing the rates and the latency / size percentiles. The rate of the job is based on the wall-clock time,
+     * the rate of the mappers on the time they spent verifying (ACTIVE_MILLIS, summed up for all the mappers).
+     */
+    private static void printSummary(org.apache.hadoop.mapred.Counters counters, long elapsedMillis) {
+        long rows = counters.getCounter(Counters.TOTAL_ROWS);
+        long activeMillis = counters.getCounter(Counters.ACTIVE_MILLIS);
+        LOG.info("verified {} rows in {} ms: {} rows/sec for the job, {} rows/sec per mapper on average",
+                rows, elapsedMillis, rows * 1000 / Math.max(1, elapsedMillis), rows * 1000 / Math.max(1, activeMillis));
+        LOG.info("GET latency of the verified rows: {}", LatencyStats.Histogram
+                .fromCounters(counters.getGroup(LatencyStats.LATENCY_GROUP)).summary("us"));
+        LOG.info("size of the verified rows: {}", LatencyStats.Histogram
+                .fromCounters(counters.getGroup(LatencyStats.SIZE_GROUP)).summary("B"));
+    }
+
 
     private static void printUsageAndDie() {
         System.err.println("usage: ");
@@ -192,6 +858,27 @@ public class CorruptRowsMR extends Configured implements Tool {
         System.err.println("    --table <ns:table>           : table to scan (mandatory)");
         System.err.println("    --output <folder in hdfs>    : where to write the results (mandatory)");
         System.err.println("    --traceCells <true|false>    : print out each cell value to the logs (default:false)");
+        System.err.println("    --batchSize <n>              : number of rows to fetch with a single multi-get (default:1)");
+        System.err.println("    --maxInFlight <n>            : use the async client with max n GETs in flight per mapper (default:0, disabled)");
+        System.err.println("    --splitsPerRegion <k>        : cut each region into k key ranges, one mapper for each (default:0, disabled)");
+        System.err.println("    --targetSplitSize <bytes>    : cut each region into key ranges of about this size (default:0, disabled)");
+        System.err.println("    --mobAware <true|false>      : check the referenced MOB files directly, instead of reading MOB values (default:false)");
+        System.err.println("    --mobCacheSize <n>           : number of MOB file check results cached per mapper (default:10000)");
+        System.err.println("    --scanVerify <true|false>    : read the full rows with a scanner, instead of GET per row (default:false)");
+        System.err.println("    --scanCaching <n>            : number of rows fetched per scanner RPC in scan-verify mode (default:100)");
+        System.err.println("    --checkpointInterval <sec>   : write the progress of the mappers to the output dir this often (default:300, 0: disabled)");
+        System.err.println("    --resume <folder in hdfs>    : output of a previous run, skip the key ranges verified there (default: none)");
+        System.err.println("    --since <epochMillis>        : verify only the cells written after this time (default:0, verify all)");
+        System.err.println("    --maxRowsPerSec <n>          : max number of rows verified per second by the whole job (default:0, no limit)");
+        System.err.println("    --maxBytesPerSec <n>         : max number of bytes read per second by the whole job (default:0, no limit)");
+        System.err.println("    --targetLatencyMs <ms>       : scale the rate limits down when the average request latency is above this,");
+        System.err.println("                                   and back up to (never above) the limits when it is below (default:0, disabled)");
+        System.err.println("    --maxMappers <n>             : max number of mappers running at the same time, the rate limits are split");
+        System.err.println("                                   between them (default:0, mapreduce.job.running.map.limit)");
+        System.err.println("    --slowRows <n>               : number of the slowest rows reported per mapper (default:10)");
+        System.err.println("    --local <true|false>         : verify the rows in this JVM, without submitting a MR job (default:false)");
+        System.err.println("    --threads <n>                : number of splits verified in parallel in local mode (default:8)");
+        System.err.println("    --aggregate <true|false>     : group the failing rows by exception and file into a binary index (default:false)");
         System.exit(1);
     }
 
@@ -201,6 +888,25 @@ public class CorruptRowsMR extends Configured implements Tool {
         String table = "";
         String output = "";
         boolean traceCells = false;
+        int batchSize = 1;
+        int maxInFlight = 0;
+        int splitsPerRegion = 0;
+        long targetSplitSize = 0;
+        boolean mobAware = false;
+        int mobCacheSize = 10000;
+        boolean scanVerify = false;
+        int scanCaching = 100;
+        long checkpointInterval = 300;
+        String resume = "";
+        long since = 0;
+        double maxRowsPerSec = 0;
+        double maxBytesPerSec = 0;
+        long targetLatencyMs = 0;
+        int maxMappers = 0;
+        int slowRows = 10;
+        boolean local = false;
+        int threads = 8;
+        boolean aggregate = false;
         if (args.length % 2 != 0) {
             printUsageAndDie();
         }
@@ -211,6 +917,44 @@ public class CorruptRowsMR extends Configured implements Tool {
                 output = args[++i];
             } else if (args[i].equals("--traceCells")) {
                 traceCells = Boolean.parseBoolean(args[++i]);
+            } else if (args[i].equals("--batchSize")) {
+                batchSize = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--maxInFlight")) {
+                maxInFlight = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--splitsPerRegion")) {
+                splitsPerRegion = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--targetSplitSize")) {
+                targetSplitSize = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--mobAware")) {
+                mobAware = Boolean.parseBoolean(args[++i]);
+            } else if (args[i].equals("--mobCacheSize")) {
+                mobCacheSize = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--scanVerify")) {
+                scanVerify = Boolean.parseBoolean(args[++i]);
+            } else if (args[i].equals("--scanCaching")) {
+                scanCaching = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--checkpointInterval")) {
+                checkpointInterval = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--resume")) {
+                resume = args[++i];
+            } else if (args[i].equals("--since")) {
+                since = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--maxRowsPerSec")) {
+                maxRowsPerSec = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("--maxBytesPerSec")) {
+                maxBytesPerSec = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("--targetLatencyMs")) {
+                targetLatencyMs = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--maxMappers")) {
+                maxMappers = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--slowRows")) {
+                slowRows = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--local")) {
+                local = Boolean.parseBoolean(args[++i]);
+            } else if (args[i].equals("--threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--aggregate")) {
+                aggregate = Boolean.parseBoolean(args[++i]);
             } else {
                 printUsageAndDie();
             }
@@ -223,12 +967,102 @@ public class CorruptRowsMR extends Configured implements Tool {
             System.err.println("missing parameter: --output");
             printUsageAndDie();
         }
-        JobClient.runJob(createSubmittableJob(table, output, traceCells, allFamilies(table)));
+        if (batchSize < 1) {
+            System.err.println("invalid parameter: --batchSize must be positive");
+            printUsageAndDie();
+        }
+        if (threads < 1) {
+            System.err.println("invalid parameter: --threads must be positive");
+            printUsageAndDie();
+        }
+        boolean rateLimited = maxRowsPerSec > 0 || maxBytesPerSec > 0;
+        if (targetLatencyMs > 0 && !rateLimited) {
+            // the latency target scales the rate limits, without a limit there is nothing to scale
+            System.err.println("invalid parameters: --targetLatencyMs needs --maxRowsPerSec or --maxBytesPerSec");
+            printUsageAndDie();
+        }
+        if (rateLimited && !local && maxMappers <= 0 && getConf().getInt(RUNNING_MAP_LIMIT_KEY, 0) <= 0) {
+            // the number of splits can be much more than the number of mappers running at the same time
+            System.err.println("missing parameter: --maxMappers is needed with --maxRowsPerSec or --maxBytesPerSec");
+            printUsageAndDie();
+        }
+        if (aggregate && (local || !resume.isEmpty())) {
+            // the local runner has no reduce phase, and the resumed failures are carried over as text
+            System.err.println("invalid parameters: --aggregate can't be used with --local or --resume");
+            printUsageAndDie();
+        }
+        JobConf jobConf = createSubmittableJob(table, output, traceCells, allFamilies(table));
+        jobConf.setInt(BATCH_SIZE_KEY, batchSize);
+        jobConf.setInt(MAX_IN_FLIGHT_KEY, maxInFlight);
+        jobConf.setInt(SPLITS_PER_REGION_KEY, splitsPerRegion);
+        jobConf.setLong(TARGET_SPLIT_SIZE_KEY, targetSplitSize);
+        jobConf.setBoolean(MOB_AWARE_KEY, mobAware);
+        if (mobAware) {
+            // the MOB reference cells are recognized by their tag, and the default codec of the client
+            // connections drops the tags of the cells sent back by the RegionServer
+            jobConf.set(HConstants.RPC_CODEC_CONF_KEY, KeyValueCodecWithTags.class.getName());
+        }
+        jobConf.setInt(MOB_CACHE_SIZE_KEY, mobCacheSize);
+        jobConf.setBoolean(SCAN_VERIFY_KEY, scanVerify);
+        jobConf.setInt(SCAN_CACHING_KEY, scanCaching);
+        jobConf.setLong(CHECKPOINT_INTERVAL_KEY, checkpointInterval);
+        jobConf.setLong(SINCE_KEY, since);
+        jobConf.setDouble(MAX_ROWS_PER_SEC_KEY, maxRowsPerSec);
+        jobConf.setDouble(MAX_BYTES_PER_SEC_KEY, maxBytesPerSec);
+        jobConf.setLong(TARGET_LATENCY_MS_KEY, targetLatencyMs);
+        jobConf.setInt(SLOW_ROWS_KEY, slowRows);
+        if (maxMappers > 0) {
+            jobConf.setInt(RUNNING_MAP_LIMIT_KEY, maxMappers);
+        }
+        if (checkpointInterval > 0) {
+            // the checkpoints of the concurrent attempts of the same task would overlap
+            jobConf.setMapSpeculativeExecution(false);
+        }
+        Path resumeFrom = null;
+        if (!resume.isEmpty()) {
+            resumeFrom = new Path(resume, Checkpoints.DIR_NAME);
+            jobConf.set(RESUME_FROM_KEY, resumeFrom.toString());
+        }
+        jobConf.setMapRunnerClass(VerifyRunner.class);
+        if (aggregate) {
+            jobConf.setBoolean(AGGREGATE_KEY, true);
+            jobConf.setCombinerClass(FailureRowsCombiner.class);
+            jobConf.setReducerClass(FailureIndexReducer.class);
+            jobConf.setNumReduceTasks(1);
+            jobConf.setOutputKeyClass(Text.class);
+            jobConf.setOutputValueClass(Text.class);
+            // the reducer writes only the index files, no empty part file
+            LazyOutputFormat.setOutputFormatClass(jobConf, TextOutputFormat.class);
+        }
+
+        long start = System.currentTimeMillis();
+        if (local) {
+            printSummary(runLocal(jobConf, threads), System.currentTimeMillis() - start);
+            return 0;
+        }
+        JobClient jobClient = new JobClient(jobConf);
+        try {
+            RunningJob job = jobClient.submitJob(jobConf);
+            if (resumeFrom != null) {
+                // the output dir check is already done at this point, so we can write to the output dir
+                Checkpoints.carryOver(jobConf, resumeFrom, new Path(output));
+            }
+            if (!jobClient.monitorAndPrintJob(jobConf, job)) {
+                throw new IOException("Job failed!");
+            }
+            printSummary(job.getCounters(), System.currentTimeMillis() - start);
+            if (aggregate) {
+                LOG.info("failure index: {}, summary: {}", new Path(output, FailureIndex.INDEX_FILE_NAME),
+                        new Path(output, FailureIndex.SUMMARY_FILE_NAME));
+            }
+        } finally {
+            jobClient.close();
+        }
         return 0;
     }
 
     private List<String> allFamilies(String table) throws IOException {
-        Configuration conf = HBaseConfiguration.create();
+        Configuration conf = HBaseConfiguration.create(getConf());
         try (Connection connection = ConnectionFactory.createConnection(conf)) {
             try (Table t = connection.getTable(TableName.valueOf(table))) {
                 return t.getDescriptor().getColumnFamilyNames().stream()
@@ -0,0 +1,279 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.symat;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compact index of the failing rows, written by CorruptRowsMR in aggregate mode instead of one text line per row.
+ *
+ * The failures are grouped by signature: the exception class and the file path found in the message (when a store
+ * file is lost, all its rows fail with the same signature). The index file contains the raw row keys of each group,
+ * followed by a directory with the signature, the number of rows, the key range and the offset of the rows of each
+ * group, so the directory can be read without reading the row keys:
+ * <pre>
+ *   int magic, int version
+ *   for each group: the row keys, as vint length + bytes
+ *   directory: vint groups, for each group: exception, file, vlong rows, first row, last row, vlong offset
+ *   long offset of the directory, int magic
+ * </pre>
+ * The summary file is the same directory as text, ordered by the number of rows (most first).
+ */
+public class FailureIndex {
+
+    public static final String INDEX_FILE_NAME = "_failures.index";
+    public static final String SUMMARY_FILE_NAME = "_failures.summary";
+    private static final int MAGIC = 0x53594649;
+    private static final int VERSION = 1;
+    private static final int TRAILER_SIZE = Long.BYTES + Integer.BYTES;
+    private static final String MESSAGE_SEPARATOR = ", message: ";
+    // hdfs://nn:8020/hbase/data/... or /hbase/data/..., up to the first white space or punctuation
+    private static final Pattern PATH = Pattern.compile("(?:[a-zA-Z][a-zA-Z0-9+.-]*://[^\\s/]*)?/[^\\s,;:'\"()\\[\\]]+");
+
+    private FailureIndex() {
+    }
+
+    /**
+     * the failures with the same signature, and their key range
+     */
+    public static class Group {
+        private final String exception;
+        private final String file;
+        private long rows;
+        private byte[] firstRow;
+        private byte[] lastRow;
+        private long offset;
+
+        Group(String exception, String file) {
+            this.exception = exception;
+            this.file = file;
+        }
+
+        public String getException() {
+            return exception;
+        }
+
+        /**
+         * @return the file path from the message, or the whole message if it does not contain a path
+         */
+        public String getFile() {
+            return file;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public byte[] getFirstRow() {
+            return firstRow;
+        }
+
+        public byte[] getLastRow() {
+            return lastRow;
+        }
+    }
+
+    /**
+     * Normalizing a failure message ("ExceptionClass, message: first line") into a signature: the exception class
+     * and the first file path in the message, separated by a tab. If there is no path in the message, the whole
+     * message is kept, so the rows are grouped only if the messages are the same.
+     */
+    static String signature(String message) {
+        int separator = message.indexOf(MESSAGE_SEPARATOR);
+        if (separator < 0) {
+            return "n/a\t" + message;
+        }
+        String exception = message.substring(0, separator);
+        String text = message.substring(separator + MESSAGE_SEPARATOR.length());
+        Matcher matcher = PATH.matcher(text);
+        while (matcher.find()) {
+            String path = matcher.group();
+            // a single slash is more likely a fraction or a date than a file
+            if (path.indexOf('/', path.indexOf('/') + 1) > 0) {
+                return exception + "\t" + path;
+            }
+        }
+        return exception + "\t" + text;
+    }
+
+    /**
+     * Writing the groups one after the other, the rows of a group have to be added between startGroup and endGroup.
+     * The rows are written as they come, only the directory is kept in memory.
+     */
+    static class Writer implements Closeable {
+        private final FSDataOutputStream out;
+        private final List<Group> groups = new ArrayList<>();
+        private Group current;
+
+        Writer(Configuration conf, Path file) throws IOException {
+            FileSystem fs = file.getFileSystem(conf);
+            this.out = fs.create(file, true);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+
+        void startGroup(String signature) throws IOException {
+            int tab = signature.indexOf('\t');
+            current = tab < 0 ? new Group(signature, "n/a")
+                    : new Group(signature.substring(0, tab), signature.substring(tab + 1));
+            current.offset = out.getPos();
+        }
+
+        void addRow(byte[] rowKey) throws IOException {
+            Bytes.writeByteArray(out, rowKey);
+            current.rows++;
+            if (current.firstRow == null || Bytes.compareTo(rowKey, current.firstRow) < 0) {
+                current.firstRow = rowKey;
+            }
+            if (current.lastRow == null || Bytes.compareTo(rowKey, current.lastRow) > 0) {
+                current.lastRow = rowKey;
+            }
+        }
+
+        void endGroup() {
+            if (current.rows > 0) {
+                groups.add(current);
+            }
+            current = null;
+        }
+
+        List<Group> getGroups() {
+            return groups;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                long directory = out.getPos();
+                WritableUtils.writeVInt(out, groups.size());
+                for (Group group : groups) {
+                    WritableUtils.writeString(out, group.exception);
+                    WritableUtils.writeString(out, group.file);
+                    WritableUtils.writeVLong(out, group.rows);
+                    Bytes.writeByteArray(out, group.firstRow);
+                    Bytes.writeByteArray(out, group.lastRow);
+                    WritableUtils.writeVLong(out, group.offset);
+                }
+                out.writeLong(directory);
+                out.writeInt(MAGIC);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Reading the directory of an index file when opened, the row keys of a group are read on demand.
+     */
+    public static class Reader implements Closeable {
+        private final FSDataInputStream in;
+        private final List<Group> groups = new ArrayList<>();
+
+        public Reader(Configuration conf, Path file) throws IOException {
+            FileSystem fs = file.getFileSystem(conf);
+            long length = fs.getFileStatus(file).getLen();
+            this.in = fs.open(file);
+            try {
+                if (length < 2 * Integer.BYTES + TRAILER_SIZE || in.readInt() != MAGIC) {
+                    throw new IOException("not a failure index: " + file);
+                }
+                int version = in.readInt();
+                if (version != VERSION) {
+                    throw new IOException("unsupported failure index version " + version + ": " + file);
+                }
+                in.seek(length - TRAILER_SIZE);
+                long directory = in.readLong();
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("truncated failure index: " + file);
+                }
+                in.seek(directory);
+                int count = WritableUtils.readVInt(in);
+                for (int i = 0; i < count; i++) {
+                    Group group = new Group(WritableUtils.readString(in), WritableUtils.readString(in));
+                    group.rows = WritableUtils.readVLong(in);
+                    group.firstRow = Bytes.readByteArray(in);
+                    group.lastRow = Bytes.readByteArray(in);
+                    group.offset = WritableUtils.readVLong(in);
+                    groups.add(group);
+                }
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        public List<Group> getGroups() {
+            return Collections.unmodifiableList(groups);
+        }
+
+        /**
+         * passing the row keys of the group to the consumer, in the order they were written (not sorted)
+         */
+        public void readRows(Group group, Consumer<byte[]> consumer) throws IOException {
+            in.seek(group.offset);
+            DataInputStream rows = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+            for (long i = 0; i < group.rows; i++) {
+                consumer.accept(Bytes.readByteArray(rows));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * writing the groups as text: exception, file, number of rows and the key range, most rows first
+     */
+    static void writeSummary(Configuration conf, Path file, List<Group> groups) throws IOException {
+        List<Group> sorted = new ArrayList<>(groups);
+        sorted.sort(Comparator.comparingLong(Group::getRows).reversed());
+        FileSystem fs = file.getFileSystem(conf);
+        try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(fs.create(file, true), StandardCharsets.UTF_8))) {
+            out.write("#exception\tfile\trows\tfirstRow\tlastRow");
+            out.newLine();
+            for (Group group : sorted) {
+                out.write(group.exception + "\t" + group.file + "\t" + group.rows
+                        + "\t" + Bytes.toStringBinary(group.firstRow) + "\t" + Bytes.toStringBinary(group.lastRow));
+                out.newLine();
+            }
+        }
+    }
+}
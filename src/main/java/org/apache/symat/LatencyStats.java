@@ -0,0 +1,247 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.symat;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.Reporter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency and size statistics of the rows verified by a single mapper.
+ *
+ * The values are recorded into histograms with power of two buckets, so recording a row is just a few
+ * arithmetic operations, without any allocation. Only the rows getting into the list of the slowest rows
+ * are copied. The bucket counts are published as job counters (one counter for each non-empty bucket), the
+ * percentiles and the slowest rows of the split are written into the _stats folder of the output dir.
+ *
+ * This class is not thread safe, it should be used only by the mapper thread.
+ */
+class LatencyStats {
+
+    static final String DIR_NAME = "_stats";
+    static final String LATENCY_GROUP = "CorruptRowsMR GET latency";
+    static final String SIZE_GROUP = "CorruptRowsMR row size";
+    static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    /**
+     * histogram of non-negative values, bucket i covers the [2^i, 2^(i+1)) range (bucket 0 covers 0 too)
+     */
+    static class Histogram {
+        private static final int BUCKETS = 63;
+        private final long[] counts = new long[BUCKETS];
+        private long total;
+        private long max;
+
+        void record(long value) {
+            counts[bucket(value)]++;
+            total++;
+            if (value > max) {
+                max = value;
+            }
+        }
+
+        static int bucket(long value) {
+            return value <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(value);
+        }
+
+        static long upperBound(int bucket) {
+            return bucket >= 62 ? Long.MAX_VALUE : 1L << (bucket + 1);
+        }
+
+        long getTotal() {
+            return total;
+        }
+
+        long getMax() {
+            return max;
+        }
+
+        /**
+         * @return the upper bound of the bucket of the given percentile (but never more than the max value)
+         */
+        long percentile(double percentile) {
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * the counter names start with the bucket index, so the counters are listed in order
+         */
+        static String counterName(int bucket, String unit) {
+            return String.format("%02d: < %d %s", bucket, upperBound(bucket), unit);
+        }
+
+        void publish(Reporter reporter, String group, String unit) {
+            for (int i = 0; i < BUCKETS; i++) {
+                if (counts[i] > 0) {
+                    reporter.incrCounter(group, counterName(i, unit), counts[i]);
+                }
+            }
+        }
+
+        /**
+         * rebuilding the histogram of the whole job from the counters published by the mappers
+         */
+        static Histogram fromCounters(Counters.Group group) {
+            Histogram histogram = new Histogram();
+            for (Counters.Counter counter : group) {
+                int bucket;
+                try {
+                    bucket = Integer.parseInt(counter.getName().substring(0, 2));
+                } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                    continue;
+                }
+                if (bucket < 0 || bucket >= BUCKETS || counter.getValue() <= 0) {
+                    continue;
+                }
+                histogram.counts[bucket] += counter.getValue();
+                histogram.total += counter.getValue();
+                histogram.max = Math.max(histogram.max, upperBound(bucket));
+            }
+            return histogram;
+        }
+
+        String summary(String unit) {
+            StringBuilder sb = new StringBuilder();
+            for (double percentile : PERCENTILES) {
+                sb.append(String.format("p%s=%d%s ", formatPercentile(percentile), percentile(percentile), unit));
+            }
+            return sb.append("max=").append(max).append(unit).toString();
+        }
+
+        private static String formatPercentile(double percentile) {
+            return percentile == Math.rint(percentile) ? Long.toString((long) percentile) : Double.toString(percentile);
+        }
+    }
+
+    static class SlowRow {
+        final byte[] rowKey;
+        final long latencyNanos;
+        final int cells;
+        final long bytes;
+
+        SlowRow(byte[] rowKey, long latencyNanos, int cells, long bytes) {
+            this.rowKey = rowKey;
+            this.latencyNanos = latencyNanos;
+            this.cells = cells;
+            this.bytes = bytes;
+        }
+    }
+
+    private final Histogram latencyMicros = new Histogram();
+    private final Histogram sizeBytes = new Histogram();
+    private final int maxSlowRows;
+    private final PriorityQueue<SlowRow> slowest = new PriorityQueue<>(Comparator.comparingLong(r -> r.latencyNanos));
+
+    /**
+     * @param maxSlowRows number of the slowest rows to keep
+     */
+    LatencyStats(int maxSlowRows) {
+        this.maxSlowRows = maxSlowRows;
+    }
+
+    /**
+     * recording a row fetched by its own request (GET or scanner next), so the latency belongs to this row only
+     */
+    void record(byte[] rowKey, long latencyNanos, int cells, long bytes) {
+        recordLatency(latencyNanos);
+        recordSize(bytes);
+        if (maxSlowRows <= 0) {
+            return;
+        }
+        if (slowest.size() < maxSlowRows || latencyNanos > slowest.peek().latencyNanos) {
+            if (slowest.size() >= maxSlowRows) {
+                slowest.poll();
+            }
+            slowest.add(new SlowRow(Arrays.copyOf(rowKey, rowKey.length), latencyNanos, cells, bytes));
+        }
+    }
+
+    /**
+     * recording the latency of a request fetching one or more rows (e.g. a multi-get), once per request
+     */
+    void recordLatency(long latencyNanos) {
+        latencyMicros.record(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+    }
+
+    /**
+     * recording the size of a row fetched together with other rows, its latency is recorded for the whole request
+     */
+    void recordSize(long bytes) {
+        sizeBytes.record(bytes);
+    }
+
+    long getRows() {
+        return sizeBytes.getTotal();
+    }
+
+    void publish(Reporter reporter) {
+        latencyMicros.publish(reporter, LATENCY_GROUP, "us");
+        sizeBytes.publish(reporter, SIZE_GROUP, "B");
+    }
+
+    /**
+     * writing the percentiles and the slowest rows (slowest first) of the [start, stop) key range
+     */
+    void write(Configuration conf, Path file, byte[] start, byte[] stop) throws IOException {
+        List<SlowRow> rows = new ArrayList<>(slowest);
+        rows.sort(Comparator.comparingLong((SlowRow r) -> r.latencyNanos).reversed());
+        FileSystem fs = file.getFileSystem(conf);
+        try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(fs.create(file, true), StandardCharsets.UTF_8))) {
+            out.write("#split\t" + Bytes.toStringBinary(start) + "\t" + Bytes.toStringBinary(stop));
+            out.newLine();
+            out.write("#rows\t" + getRows());
+            out.newLine();
+            out.write("#latency\t" + latencyMicros.summary("us"));
+            out.newLine();
+            out.write("#size\t" + sizeBytes.summary("B"));
+            out.newLine();
+            out.write("#rowKey\tlatencyUs\tcells\tbytes");
+            out.newLine();
+            for (SlowRow row : rows) {
+                out.write(Bytes.toStringBinary(row.rowKey) + "\t" + TimeUnit.NANOSECONDS.toMicros(row.latencyNanos)
+                        + "\t" + row.cells + "\t" + row.bytes);
+                out.newLine();
+            }
+        }
+    }
+}
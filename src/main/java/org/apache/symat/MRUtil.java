@@ -17,22 +17,39 @@
  */
 package org.apache.symat;
 
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
 import org.apache.hadoop.hbase.mapred.TableInputFormat;
 import org.apache.hadoop.hbase.mapred.TableMap;
 import org.apache.hadoop.hbase.mapred.TableMapReduceUtil;
 import org.apache.hadoop.hbase.mapreduce.MutationSerialization;
 import org.apache.hadoop.hbase.mapreduce.ResultSerialization;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.mapred.InputFormat;
 import org.apache.hadoop.mapred.JobConf;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 public class MRUtil extends TableMapReduceUtil {
 
     private static final Logger LOG = LoggerFactory.getLogger(MRUtil.class);
 
+    // the first column of the header lines written by the tools (stats, failure summary, checkpoints)
+    private static final Set<String> HEADERS = new HashSet<>(Arrays.asList(
+            "#split", "#rows", "#latency", "#size", "#rowKey", "#exception", "#range"));
+
     /**
      * This static method is similar to the implementation of the super class.
      * The only difference is how we set the input table.
@@ -65,4 +82,106 @@ public class MRUtil extends TableMapReduceUtil {
             LOG.error("unable to init credentials", ioe);
         }
     }
+
+    /**
+     * Cutting the key range of a region into the given number of pieces, like {@link #splitKeyRange}, but the
+     * open ends of the first and the last region are bounded by the real first / last row of the region. Otherwise
+     * the cut points would be interpolated up to 0xFF...FF, and for the usual ASCII or increasing keys all the rows
+     * of the last region (often the busiest one) would end up in a single piece. The bounds are found with a
+     * one-row scan and a one-row reversed scan, if they fail the open ends are kept.
+     */
+    public static byte[][] splitRegion(Table table, byte[] startKey, byte[] endKey, int pieces) {
+        if (pieces <= 1 || (startKey.length > 0 && endKey.length > 0)) {
+            return splitKeyRange(startKey, endKey, pieces);
+        }
+        byte[] lower = startKey;
+        byte[] upper = endKey;
+        try {
+            if (lower.length == 0) {
+                Scan scan = boundaryScan().withStartRow(startKey).withStopRow(endKey);
+                lower = firstRow(table, scan);
+            }
+            if (lower != null && upper.length == 0) {
+                Scan scan = boundaryScan().setReversed(true).withStopRow(startKey, true);
+                byte[] lastRow = firstRow(table, scan);
+                // the smallest key after the last row, so the last row is in the range
+                upper = lastRow == null ? null : Bytes.add(lastRow, new byte[]{0});
+            }
+        } catch (IOException e) {
+            LOG.warn("unable to find the first / last row of key range [{}, {}), cutting it without them",
+                    Bytes.toStringBinary(startKey), Bytes.toStringBinary(endKey), e);
+            return splitKeyRange(startKey, endKey, pieces);
+        }
+        if (lower == null || upper == null || Bytes.compareTo(lower, upper) >= 0) {
+            // empty region, nothing to cut
+            return new byte[][]{startKey, endKey};
+        }
+        byte[][] keys = splitKeyRange(lower, upper, pieces);
+        keys[0] = startKey;
+        keys[keys.length - 1] = endKey;
+        return keys;
+    }
+
+    private static Scan boundaryScan() {
+        return new Scan().setOneRowLimit().setCaching(1).setCacheBlocks(false)
+                .setFilter(new FilterList(new FirstKeyOnlyFilter(), new KeyOnlyFilter()));
+    }
+
+    private static byte[] firstRow(Table table, Scan scan) throws IOException {
+        try (ResultScanner scanner = table.getScanner(scan)) {
+            Result result = scanner.next();
+            return result == null ? null : result.getRow();
+        }
+    }
+
+    /**
+     * Parsing the first column of a text output line (CorruptRowsMR, TableDiff, etc.) as a row key byte string.
+     * Only the known header lines are skipped: Bytes.toStringBinary doesn't escape '#', so a row key can start
+     * with it. Lines with an empty first column are skipped too, e.g. the cells printed by TableDiff below a row.
+     * @return the row key, or null if the line doesn't hold a row key
+     */
+    static byte[] parseRowKey(String column) {
+        if (column.isEmpty() || HEADERS.contains(column)) {
+            return null;
+        }
+        return Bytes.toBytesBinary(column);
+    }
+
+    /**
+     * Cutting the [startKey, endKey) key range into the given number of pieces, assuming uniform key distribution.
+     * Empty start / end keys are handled as the lowest / highest possible keys. The returned array contains
+     * the original start and end keys as the first and last elements, and the cut points in between.
+     * Fewer pieces can be returned if the key range is too narrow.
+     */
+    public static byte[][] splitKeyRange(byte[] startKey, byte[] endKey, int pieces) {
+        if (pieces <= 1) {
+            return new byte[][]{startKey, endKey};
+        }
+        byte[] upper = endKey;
+        if (upper.length == 0) {
+            // any key of this length filled with 0xFF is bigger than the start key
+            upper = new byte[Math.max(startKey.length, 1) + 1];
+            Arrays.fill(upper, (byte) 0xFF);
+        }
+        byte[][] cuts;
+        try {
+            cuts = Bytes.split(startKey, upper, pieces - 1);
+        } catch (IllegalArgumentException e) {
+            LOG.warn("unable to split key range [{}, {})", Bytes.toStringBinary(startKey), Bytes.toStringBinary(endKey));
+            cuts = null;
+        }
+        if (cuts == null) {
+            return new byte[][]{startKey, endKey};
+        }
+        List<byte[]> keys = new ArrayList<>(cuts.length);
+        keys.add(startKey);
+        for (int i = 1; i < cuts.length - 1; i++) {
+            byte[] previous = keys.get(keys.size() - 1);
+            if (Bytes.compareTo(cuts[i], previous) > 0 && Bytes.compareTo(cuts[i], upper) < 0) {
+                keys.add(cuts[i]);
+            }
+        }
+        keys.add(endKey);
+        return keys.toArray(new byte[0][]);
+    }
 }
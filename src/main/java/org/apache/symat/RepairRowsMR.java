@@ -0,0 +1,429 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.symat;
+
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.mapred.HRegionPartitioner;
+import org.apache.hadoop.hbase.mapred.TableOutputFormat;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.KeyValueTextInputFormat;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.RunningJob;
+import org.apache.hadoop.mapred.TextOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * this is a map-reduce job repairing the rows found by CorruptRowsMR, by copying
+ * them from a healthy source table or snapshot into the destination table
+ *
+ * The mappers read the row keys from the output of CorruptRowsMR, the keys are partitioned by the regions
+ * of the source table (or of the destination table, when copying from a snapshot), and the reducers copy
+ * the rows in key order, using the same logic as CopyRow. The rows which could not be copied are written
+ * to the output, in the same format as the input, so the output can be used as the input of a next run.
+ */
+public class RepairRowsMR extends Configured implements Tool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RepairRowsMR.class);
+
+    static final String SOURCE_TABLE_KEY = "repairRowsMR.sourceTable";
+    static final String SOURCE_SNAPSHOT_KEY = "repairRowsMR.sourceSnapshot";
+    static final String RESTORED_SNAPSHOT_KEY = "repairRowsMR.restoredSnapshot";
+    static final String DEST_TABLE_KEY = "repairRowsMR.destTable";
+    static final String OVERRIDE_KEY = "repairRowsMR.override";
+    static final String TIMESTAMP_TO_USE_KEY = "repairRowsMR.timestampToUse";
+    static final String BATCH_SIZE_KEY = "repairRowsMR.batchSize";
+    static final String STREAM_ROWS_KEY = "repairRowsMR.streamRows";
+    static final String SCAN_BATCH_KEY = "repairRowsMR.scanBatch";
+    static final String MAX_PUT_BYTES_KEY = "repairRowsMR.maxPutBytes";
+    static final String DRY_RUN_KEY = "repairRowsMR.dryRun";
+
+    private enum Counters {
+        COPIED,
+        READABLE,
+        MISSING,
+        FAILED,
+    }
+
+    /**
+     * reading the row keys from the CorruptRowsMR output lines (row key, tab, error message)
+     */
+    static class RowKeyMapper implements Mapper<Text, Text, ImmutableBytesWritable, NullWritable> {
+
+        @Override
+        public void map(Text rowKey, Text message, OutputCollector<ImmutableBytesWritable, NullWritable> output,
+                        Reporter reporter) throws IOException {
+            // only the header lines are skipped, a row key can start with '#'
+            byte[] row = MRUtil.parseRowKey(rowKey.toString());
+            if (row == null) {
+                return;
+            }
+            output.collect(new ImmutableBytesWritable(row), NullWritable.get());
+        }
+
+        @Override
+        public void configure(JobConf jobConf) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Copying the rows of the partition in batches of batchSize rows. When copying from a snapshot, each batch
+     * is read with a single snapshot scan, opening only the snapshot regions overlapping with the batch.
+     */
+    static class RepairReducer implements Reducer<ImmutableBytesWritable, NullWritable, Text, Text> {
+        private JobConf jobConf;
+        private Connection connection;
+        private Table source;
+        private BufferedMutator dest;
+        private CopyRow.RowCopier copier;
+        private final CopyRow.CopyStats stats = new CopyRow.CopyStats();
+        private final List<byte[]> batch = new ArrayList<>();
+        private final List<String[]> skippedRows = Collections.synchronizedList(new ArrayList<>());
+        private OutputCollector<Text, Text> output;
+        private Reporter reporter;
+        private int batchSize;
+        private boolean streamRows;
+        private boolean dryRun;
+        private String snapshotName;
+        private long publishedRows;
+        private long publishedMissing;
+        private long publishedFailed;
+
+        @Override
+        public void configure(JobConf jobConf) {
+            this.jobConf = jobConf;
+            this.batchSize = jobConf.getInt(BATCH_SIZE_KEY, 100);
+            this.streamRows = jobConf.getBoolean(STREAM_ROWS_KEY, false);
+            this.dryRun = jobConf.getBoolean(DRY_RUN_KEY, false);
+            this.snapshotName = jobConf.get(SOURCE_SNAPSHOT_KEY, "");
+        }
+
+        private CopyRow.RowCopier initOrGetCopier() throws IOException {
+            if (copier == null) {
+                connection = ConnectionFactory.createConnection(HBaseConfiguration.create(jobConf));
+                if (snapshotName.isEmpty()) {
+                    source = connection.getTable(TableName.valueOf(jobConf.get(SOURCE_TABLE_KEY)));
+                }
+                if (!dryRun) {
+                    BufferedMutatorParams params = new BufferedMutatorParams(TableName.valueOf(jobConf.get(DEST_TABLE_KEY)))
+                            .listener((e, mutator) -> onWriteFailure(e));
+                    dest = connection.getBufferedMutator(params);
+                }
+                copier = new CopyRow.RowCopier(source, dest,
+                        jobConf.getBoolean(OVERRIDE_KEY, false),
+                        jobConf.getLong(TIMESTAMP_TO_USE_KEY, System.currentTimeMillis()),
+                        jobConf.getInt(SCAN_BATCH_KEY, 10000),
+                        jobConf.getLong(MAX_PUT_BYTES_KEY, 2 * 1024 * 1024),
+                        stats)
+                        .setSkippedRowListener((rowKey, missing, reason) -> skippedRows.add(
+                                new String[]{Bytes.toStringBinary(rowKey), (missing ? "MISSING, " : "FAILED, ") + reason}));
+            }
+            return copier;
+        }
+
+        /**
+         * the failed puts are reported on the thread calling the mutator, so it is always the reducer thread
+         */
+        private void onWriteFailure(RetriesExhaustedWithDetailsException e) {
+            for (int i = 0; i < e.getNumExceptions(); i++) {
+                byte[] rowKey = e.getRow(i).getRow();
+                // a row can be written with several puts, it is reported only once
+                if (stats.failed(rowKey, true)) {
+                    LOG.error("unable to write row {}", Bytes.toStringBinary(rowKey), e.getCause(i));
+                    skippedRows.add(new String[]{Bytes.toStringBinary(rowKey),
+                            "FAILED, " + RowVerifier.failureMessage(e.getCause(i))});
+                }
+            }
+        }
+
+        @Override
+        public void reduce(ImmutableBytesWritable rowKey, Iterator<NullWritable> values,
+                           OutputCollector<Text, Text> output, Reporter reporter) throws IOException {
+            this.output = output;
+            this.reporter = reporter;
+            // the same row can be listed more than once in the input, but we copy it only once
+            batch.add(rowKey.copyBytes());
+            if (batch.size() >= batchSize) {
+                flushBatch();
+            }
+        }
+
+        private void flushBatch() throws IOException {
+            if (batch.isEmpty()) {
+                return;
+            }
+            CopyRow.RowCopier rowCopier = initOrGetCopier();
+            if (!snapshotName.isEmpty()) {
+                CopyRow.copyFromSnapshot(jobConf, snapshotName, new Path(jobConf.get(RESTORED_SNAPSHOT_KEY)), rowCopier,
+                        null, null, batch, batchSize);
+            } else if (streamRows) {
+                rowCopier.copyRowsStreaming(batch);
+            } else {
+                rowCopier.copyRows(batch);
+            }
+            batch.clear();
+            publish();
+        }
+
+        /**
+         * writing the skipped rows to the output and updating the counters since the last call
+         */
+        private void publish() throws IOException {
+            List<String[]> skipped;
+            synchronized (skippedRows) {
+                skipped = new ArrayList<>(skippedRows);
+                skippedRows.clear();
+            }
+            for (String[] row : skipped) {
+                output.collect(new Text(row[0]), new Text(row[1]));
+            }
+            long rows = stats.rows.get();
+            long missing = stats.missingRows.get();
+            long failed = stats.failedRows.get();
+            reporter.incrCounter(dryRun ? Counters.READABLE : Counters.COPIED, rows - publishedRows);
+            reporter.incrCounter(Counters.MISSING, missing - publishedMissing);
+            reporter.incrCounter(Counters.FAILED, failed - publishedFailed);
+            publishedRows = rows;
+            publishedMissing = missing;
+            publishedFailed = failed;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flushBatch();
+                if (dest != null) {
+                    dest.flush();
+                    publish();
+                }
+            } finally {
+                if (dest != null) {
+                    dest.close();
+                }
+                if (source != null) {
+                    source.close();
+                }
+                if (connection != null) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    private static void printUsageAndDie() {
+        System.err.println("usage: ");
+        System.err.println("  export HBASE_CLASSPATH=./symat-hbase-tools-<version>.jar");
+        System.err.println("  hbase org.apache.symat.RepairRowsMR <options> \n");
+        System.err.println("options:");
+        System.err.println("    --input <folder in hdfs>         : output of CorruptRowsMR (mandatory)");
+        System.err.println("    --output <folder in hdfs>        : where to write the rows which could not be repaired (mandatory)");
+        System.err.println("    --sourceTable <ns:table>         : table to copy the rows from");
+        System.err.println("    --sourceSnapshot <snapshot>      : snapshot to copy the rows from, instead of a source table");
+        System.err.println("    --restoreDir <folder>            : temp folder for the snapshot restore, on the HBase filesystem (default: /tmp/repairrows-restore)");
+        System.err.println("    --destTable <ns:table>           : table to repair (mandatory)");
+        System.err.println("    --override <true|false>          : if true, then timestamp will be changed before push (default: false)");
+        System.err.println("    --timestampToUse <epochMillis>   : if override=true, you can specify timestamp (default: job start time)");
+        System.err.println("    --batchSize <n>                  : number of rows fetched with a single multi-get (default: 100)");
+        System.err.println("    --streamRows <true|false>        : read the rows in pieces with a scanner, for very wide rows (default: false)");
+        System.err.println("    --scanBatch <n>                  : max number of cells read at once when streaming (default: 10000)");
+        System.err.println("    --maxPutBytes <bytes>            : max size of the cells sent in a single put (default: 2097152)");
+        System.err.println("    --maxReducers <n>                : max number of reducers (default: 0, one per region)");
+        System.err.println("    --dryRun <true|false>            : only check that the rows can be read from the source (default: false)");
+        System.exit(1);
+    }
+
+    @Override
+    public int run(String[] args) throws Exception {
+        String input = "";
+        String output = "";
+        String sourceTable = "";
+        String sourceSnapshot = "";
+        String restoreDir = "/tmp/repairrows-restore";
+        String destTable = "";
+        boolean override = false;
+        long timestampToUse = System.currentTimeMillis();
+        int batchSize = 100;
+        boolean streamRows = false;
+        int scanBatch = 10000;
+        long maxPutBytes = 2 * 1024 * 1024;
+        int maxReducers = 0;
+        boolean dryRun = false;
+        if (args.length % 2 != 0) {
+            printUsageAndDie();
+        }
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--input")) {
+                input = args[++i];
+            } else if (args[i].equals("--output")) {
+                output = args[++i];
+            } else if (args[i].equals("--sourceTable")) {
+                sourceTable = args[++i];
+            } else if (args[i].equals("--sourceSnapshot")) {
+                sourceSnapshot = args[++i];
+            } else if (args[i].equals("--restoreDir")) {
+                restoreDir = args[++i];
+            } else if (args[i].equals("--destTable")) {
+                destTable = args[++i];
+            } else if (args[i].equals("--override")) {
+                override = Boolean.parseBoolean(args[++i]);
+            } else if (args[i].equals("--timestampToUse")) {
+                timestampToUse = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--batchSize")) {
+                batchSize = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--streamRows")) {
+                streamRows = Boolean.parseBoolean(args[++i]);
+            } else if (args[i].equals("--scanBatch")) {
+                scanBatch = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--maxPutBytes")) {
+                maxPutBytes = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--maxReducers")) {
+                maxReducers = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--dryRun")) {
+                dryRun = Boolean.parseBoolean(args[++i]);
+            } else {
+                printUsageAndDie();
+            }
+        }
+        if (input.isEmpty() || output.isEmpty() || destTable.isEmpty()) {
+            System.err.println("missing parameter: --input, --output and --destTable are mandatory");
+            printUsageAndDie();
+        }
+        if (sourceTable.isEmpty() == sourceSnapshot.isEmpty()) {
+            System.err.println("invalid parameters: exactly one of --sourceTable or --sourceSnapshot is needed");
+            printUsageAndDie();
+        }
+        if (batchSize < 1 || scanBatch < 1 || maxPutBytes < 1) {
+            System.err.println("invalid parameter: --batchSize, --scanBatch and --maxPutBytes must be positive");
+            printUsageAndDie();
+        }
+
+        Path inputPath = new Path(input);
+        if (inputPath.getFileSystem(getConf()).exists(new Path(inputPath, FailureIndex.INDEX_FILE_NAME))) {
+            // the mappers read text lines, the aggregated output has only the (hidden) index files
+            System.err.println("invalid parameter: --input is an aggregated CorruptRowsMR output, use CopyRow --rowKeysFile with it");
+            printUsageAndDie();
+        }
+
+        JobConf jobConf = new JobConf(getConf(), getClass());
+        jobConf.setJobName("RepairRowsMR");
+        jobConf.setInputFormat(KeyValueTextInputFormat.class);
+        FileInputFormat.setInputPaths(jobConf, inputPath);
+        jobConf.setMapperClass(RowKeyMapper.class);
+        jobConf.setMapOutputKeyClass(ImmutableBytesWritable.class);
+        jobConf.setMapOutputValueClass(NullWritable.class);
+        // there is no source table to partition by when copying from a snapshot, so we use the destination table
+        String partitionTable = sourceSnapshot.isEmpty() ? sourceTable : destTable;
+        jobConf.setPartitionerClass(HRegionPartitioner.class);
+        jobConf.set(TableOutputFormat.OUTPUT_TABLE, partitionTable);
+        MRUtil.setNumReduceTasks(partitionTable, jobConf);
+        if (maxReducers > 0 && jobConf.getNumReduceTasks() > maxReducers) {
+            jobConf.setNumReduceTasks(maxReducers);
+        }
+        jobConf.setReducerClass(RepairReducer.class);
+        // the rows would be copied twice by the concurrent attempts
+        jobConf.setReduceSpeculativeExecution(false);
+        jobConf.setOutputKeyClass(Text.class);
+        jobConf.setOutputValueClass(Text.class);
+        jobConf.setOutputFormat(TextOutputFormat.class);
+        FileOutputFormat.setOutputPath(jobConf, new Path(output));
+
+        jobConf.set(SOURCE_TABLE_KEY, sourceTable);
+        jobConf.set(SOURCE_SNAPSHOT_KEY, sourceSnapshot);
+        jobConf.set(DEST_TABLE_KEY, destTable);
+        jobConf.setBoolean(OVERRIDE_KEY, override);
+        jobConf.setLong(TIMESTAMP_TO_USE_KEY, timestampToUse);
+        jobConf.setInt(BATCH_SIZE_KEY, batchSize);
+        jobConf.setBoolean(STREAM_ROWS_KEY, streamRows);
+        jobConf.setInt(SCAN_BATCH_KEY, scanBatch);
+        jobConf.setLong(MAX_PUT_BYTES_KEY, maxPutBytes);
+        jobConf.setBoolean(DRY_RUN_KEY, dryRun);
+        try {
+            MRUtil.addDependencyJars(jobConf);
+        } catch (IOException e) {
+            LOG.error("unable to add dependency jars", e);
+        }
+        try {
+            MRUtil.initCredentials(jobConf);
+        } catch (IOException ioe) {
+            LOG.error("unable to init credentials", ioe);
+        }
+
+        Path restoredSnapshot = null;
+        JobClient jobClient = new JobClient(jobConf);
+        try {
+            if (!sourceSnapshot.isEmpty()) {
+                restoredSnapshot = new Path(restoreDir, UUID.randomUUID().toString());
+                CopyRow.restoreSnapshot(jobConf, sourceSnapshot, restoredSnapshot);
+                jobConf.set(RESTORED_SNAPSHOT_KEY, restoredSnapshot.toString());
+            }
+            RunningJob job = jobClient.submitJob(jobConf);
+            if (!jobClient.monitorAndPrintJob(jobConf, job)) {
+                throw new IOException("Job failed!");
+            }
+            long failed = job.getCounters().getCounter(Counters.FAILED);
+            if (failed > 0) {
+                LOG.error("failed to repair {} rows, see the output: {}", failed, output);
+                return 1;
+            }
+        } finally {
+            jobClient.close();
+            if (restoredSnapshot != null) {
+                LOG.info("deleting restored snapshot: {}", restoredSnapshot);
+                restoredSnapshot.getFileSystem(jobConf).delete(restoredSnapshot, true);
+            }
+        }
+        return 0;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int errCode = ToolRunner.run(HBaseConfiguration.create(), new RepairRowsMR(), args);
+        System.exit(errCode);
+    }
+}
@@ -0,0 +1,785 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.symat;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.AdvancedScanResultConsumer;
+import org.apache.hadoop.hbase.client.AsyncConnection;
+import org.apache.hadoop.hbase.client.AsyncTable;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.mapred.TableSplit;
+import org.apache.hadoop.hbase.mob.MobConstants;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The verification logic of CorruptRowsMR: fetching the rows (with GETs, multi-gets, async GETs or a scanner),
+ * and writing the failing row keys to the output collector. A verifier processes the splits of a single mapper
+ * (or of a single worker of the local runner), the results are collected on the thread calling it.
+ *
+ * The HBase connections can be shared between the verifiers, in this case they are not closed by the verifier.
+ *
+ * Verifying a row which is fine does not allocate anything beyond the GET and its result (and the copy of the
+ * row key, when batching), as at 100k+ rows / sec per mapper the garbage collection becomes a bottleneck.
+ */
+class RowVerifier implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RowVerifier.class);
+
+    static final byte[] MOB_SCAN_RAW_VALUE = Bytes.toBytes(Boolean.TRUE);
+
+    /**
+     * max number of key-only scans used to find the end of a key range where even the row keys can't be read
+     */
+    static final int MAX_BISECT_STEPS = 128;
+
+    /**
+     * latency of a row fetched together with other rows (a multi-get, or a scanner RPC fetching many rows),
+     * the latency is recorded once for the whole request
+     */
+    private static final long SHARED_LATENCY = -1;
+
+    /**
+     * the "ExceptionClass, message: " prefix of the failure messages, computed only once per exception class
+     */
+    private static final ClassValue<String> FAILURE_PREFIX = new ClassValue<String>() {
+        @Override
+        protected String computeValue(Class<?> type) {
+            return type.getSimpleName() + ", message: ";
+        }
+    };
+
+    private final JobConf jobConf;
+    private final String tableName;
+    private final boolean traceCells;
+    private final int batchSize;
+    private final int maxInFlight;
+    private final boolean mobAware;
+    private final boolean scanVerify;
+    private final boolean aggregate;
+    private final long since;
+    private final OutputCollector<Text, Text> outputCollector;
+    private final Reporter reporter;
+    private final AdaptiveThrottle throttle;
+    private final LatencyStats stats;
+    private final long createdNanos;
+    private final List<byte[]> batch = new ArrayList<>();
+    private final BlockingQueue<AsyncOutcome> completed = new LinkedBlockingQueue<>();
+    // the output collector serializes the key and the value right away, so we can reuse them
+    private final Text outputKey = new Text();
+    private final Text outputValue = new Text();
+    private final boolean ownConnection;
+    private final boolean ownAsyncConnection;
+    private Connection connection;
+    private AsyncConnection asyncConnection;
+    private Table table;
+    private AsyncTable<AdvancedScanResultConsumer> asyncTable;
+    private int inFlight;
+    private CorruptRowsMR.MobFileChecker mobFileChecker;
+    private Checkpoints.Writer checkpoints;
+    private byte[] splitStart;
+    private byte[] splitEnd;
+    private byte[] lastRow;
+    private boolean splitFinished;
+
+    /**
+     * result of an async GET, handed over from the HBase client threads to the verifier thread
+     */
+    private static class AsyncOutcome {
+        private final byte[] rowKey;
+        private final long submitNanos;
+        private final long completeNanos;
+        private final Result result;
+        private final Throwable error;
+        // the number of rows of the multi-get not processed yet, shared by its rows, null for a single GET
+        private final int[] pending;
+
+        AsyncOutcome(byte[] rowKey, long submitNanos, int[] pending, Result result, Throwable error) {
+            this.rowKey = rowKey;
+            this.pending = pending;
+            this.submitNanos = submitNanos;
+            this.completeNanos = System.nanoTime();
+            this.result = result;
+            this.error = error;
+        }
+    }
+
+    /**
+     * @param connection shared connection, or null to use the connection shared within the JVM
+     * @param asyncConnection shared async connection, or null to create (and close) one when it is needed
+     */
+    RowVerifier(JobConf jobConf, Connection connection, AsyncConnection asyncConnection,
+                OutputCollector<Text, Text> outputCollector, Reporter reporter) {
+        this.jobConf = jobConf;
+        this.connection = connection;
+        this.ownConnection = connection == null;
+        this.asyncConnection = asyncConnection;
+        this.ownAsyncConnection = asyncConnection == null;
+        this.outputCollector = outputCollector;
+        this.reporter = reporter;
+        this.tableName = jobConf.get("corruptRowsMR.table");
+        this.traceCells = jobConf.getBoolean("corruptRowsMR.traceCells", false);
+        this.batchSize = jobConf.getInt(CorruptRowsMR.BATCH_SIZE_KEY, 1);
+        this.maxInFlight = jobConf.getInt(CorruptRowsMR.MAX_IN_FLIGHT_KEY, 0);
+        this.mobAware = jobConf.getBoolean(CorruptRowsMR.MOB_AWARE_KEY, false);
+        this.scanVerify = jobConf.getBoolean(CorruptRowsMR.SCAN_VERIFY_KEY, false);
+        this.aggregate = jobConf.getBoolean(CorruptRowsMR.AGGREGATE_KEY, false);
+        this.since = jobConf.getLong(CorruptRowsMR.SINCE_KEY, 0);
+        // the limits are for the whole job, we split them evenly between the mappers running at the same time
+        // (the driver does not start a rate limited job without a running map limit)
+        int mappers = Math.max(1, jobConf.getInt(CorruptRowsMR.RUNNING_MAP_LIMIT_KEY, 1));
+        this.throttle = new AdaptiveThrottle(
+                jobConf.getDouble(CorruptRowsMR.MAX_ROWS_PER_SEC_KEY, 0) / mappers,
+                jobConf.getDouble(CorruptRowsMR.MAX_BYTES_PER_SEC_KEY, 0) / mappers,
+                jobConf.getLong(CorruptRowsMR.TARGET_LATENCY_MS_KEY, 0));
+        this.stats = new LatencyStats(jobConf.getInt(CorruptRowsMR.SLOW_ROWS_KEY, 10));
+        this.createdNanos = System.nanoTime();
+    }
+
+    static AsyncConnection createAsyncConnection(Configuration conf) throws IOException {
+        try {
+            return ConnectionFactory.createAsyncConnection(conf).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while initializing async HBase connection");
+        } catch (ExecutionException e) {
+            throw new IOException("unable to initialize async HBase connection", e.getCause());
+        }
+    }
+
+    private synchronized Connection initOrGetConnection() throws IOException {
+        if (connection == null) {
+            Configuration conf = HBaseConfiguration.create(jobConf);
+            connection = CorruptRowsMR.acquireConnection(conf);
+        }
+        if (connection == null) {
+            throw new IllegalStateException("unable to initialize HBase connection");
+        }
+        return connection;
+    }
+
+    private synchronized Table initOrGetTable() throws IOException {
+        if (table == null) {
+            table = initOrGetConnection().getTable(TableName.valueOf(tableName));
+        }
+        if (table == null) {
+            throw new IllegalStateException("unable to initialize HBase table");
+        }
+        return table;
+    }
+
+    private synchronized AsyncTable<AdvancedScanResultConsumer> initOrGetAsyncTable() throws IOException {
+        if (asyncTable == null) {
+            if (asyncConnection == null) {
+                asyncConnection = createAsyncConnection(HBaseConfiguration.create(jobConf));
+            }
+            asyncTable = asyncConnection.getTable(TableName.valueOf(tableName));
+        }
+        return asyncTable;
+    }
+
+    private synchronized CorruptRowsMR.MobFileChecker initOrGetMobFileChecker() throws IOException {
+        if (mobFileChecker == null) {
+            Configuration conf = HBaseConfiguration.create(jobConf);
+            mobFileChecker = new CorruptRowsMR.MobFileChecker(conf, TableName.valueOf(tableName),
+                    jobConf.getInt(CorruptRowsMR.MOB_CACHE_SIZE_KEY, 10000));
+        }
+        return mobFileChecker;
+    }
+
+    /**
+     * In MOB-aware mode we read the MOB reference cells in raw mode, so the RegionServer will not
+     * resolve the MOB values. The referenced MOB files are checked by the MobFileChecker instead.
+     */
+    private Get newGet(byte[] rowKey) throws IOException {
+        Get get = new Get(rowKey);
+        if (mobAware) {
+            get.setAttribute(MobConstants.MOB_SCAN_RAW, MOB_SCAN_RAW_VALUE);
+        }
+        if (since > 0) {
+            // only the store files with cells newer than this will be read
+            get.setTimeRange(since, HConstants.LATEST_TIMESTAMP);
+        }
+        return get;
+    }
+
+    /**
+     * verifying all the rows of the split: the row keys coming from the record reader, or in scan-verify mode
+     * the full rows of the split, read with a scanner
+     */
+    void verifySplit(TableSplit split, RecordReader<ImmutableBytesWritable, Result> input) throws IOException {
+        startSplit(split.getStartRow(), split.getEndRow());
+        if (scanVerify) {
+            scanVerify(split.getStartRow(), split.getEndRow());
+        } else {
+            ImmutableBytesWritable key = input.createKey();
+            Result value = input.createValue();
+            while (input.next(key, value)) {
+                verify(key);
+            }
+        }
+        finishSplit();
+    }
+
+    void startSplit(byte[] startRow, byte[] endRow) throws IOException {
+        this.splitStart = startRow;
+        this.splitEnd = endRow;
+        this.splitFinished = false;
+        long intervalMs = jobConf.getLong(CorruptRowsMR.CHECKPOINT_INTERVAL_KEY, 300) * 1000;
+        String attemptId = jobConf.get("mapreduce.task.attempt.id");
+        if (intervalMs > 0 && attemptId != null) {
+            Path dir = new Path(FileOutputFormat.getOutputPath(jobConf), Checkpoints.DIR_NAME);
+            checkpoints = new Checkpoints.Writer(jobConf, dir, attemptId, startRow, intervalMs);
+        }
+    }
+
+    /**
+     * called after all the rows of the split were passed to the verifier
+     */
+    void finishSplit() throws IOException {
+        flushBatch();
+        drainAsync();
+        if (checkpoints != null) {
+            checkpoints.write(splitEnd);
+        }
+        splitFinished = true;
+    }
+
+    /**
+     * called after a row is passed to the verifier, writes a checkpoint if it is due. With batches or async GETs
+     * the row might not be verified yet, so first we wait until all the outstanding rows are done.
+     */
+    private void rowDone(byte[] rowKey) throws IOException {
+        lastRow = rowKey;
+        if (checkpoints != null && checkpoints.isDue()) {
+            flushBatch();
+            drainAsync();
+            checkpoints.write(Checkpoints.after(rowKey));
+        }
+    }
+
+    /**
+     * verifying a single row with a GET, or adding it to the current batch
+     */
+    void verify(ImmutableBytesWritable rowKeyWritable) throws IOException {
+        reporter.incrCounter(CorruptRowsMR.Counters.TOTAL_ROWS, 1);
+
+        if (batchSize <= 1 && maxInFlight <= 0) {
+            verifyRow(initOrGetTable(), rowKeyWritable.get());
+            rowDone(rowKeyWritable.get());
+            return;
+        }
+        // the key buffer can be reused by the record reader, so we keep a copy until the batch is flushed
+        byte[] rowKey = rowKeyWritable.copyBytes();
+        batch.add(rowKey);
+        if (batch.size() >= batchSize) {
+            flushBatch();
+        }
+        rowDone(rowKey);
+    }
+
+    /**
+     * Reading the full rows of the key range with a scanner, instead of fetching the row keys first and then
+     * sending a GET for each row. When the scanner fails we don't know which row is failing, so we reopen the
+     * scanner after the last successful row, halving the scanner caching each time. When even a single row
+     * can not be fetched, we find the key of that row with a key-only scan, verify it with a GET, and then
+     * continue the full scan after it. If even the key-only scan fails (or finds no row), we can't tell which rows
+     * are affected, so the unreadable key range is reported as a single failure and the scan continues after it.
+     */
+    void scanVerify(byte[] startRow, byte[] endRow) throws IOException {
+        Table t = initOrGetTable();
+        int fullCaching = jobConf.getInt(CorruptRowsMR.SCAN_CACHING_KEY, 100);
+        int caching = fullCaching;
+        byte[] resumeRow = startRow;
+        boolean inclusive = true;
+        while (true) {
+            // only the errors of the scanner are handled here, the errors of the output are passed on
+            IOException failure = null;
+            ResultScanner scanner = null;
+            try {
+                long start = System.nanoTime();
+                scanner = t.getScanner(newScan(resumeRow, inclusive, endRow).setCaching(caching)
+                        .setScanMetricsEnabled(true));
+                // the scanner may fetch the first rows when it is opened
+                if (rpcCount(scanner) > 0) {
+                    stats.recordLatency(System.nanoTime() - start);
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+            try {
+                while (failure == null) {
+                    Result r;
+                    throttle.acquire(1);
+                    long rpcs = rpcCount(scanner);
+                    long start = System.nanoTime();
+                    try {
+                        r = scanner.next();
+                    } catch (IOException e) {
+                        throttle.onError(e);
+                        failure = e;
+                        break;
+                    }
+                    if (r == null) {
+                        return;
+                    }
+                    long latency = System.nanoTime() - start;
+                    // most of the rows come from the cache of the scanner, only the RPCs are recorded, once each
+                    boolean fetched = rpcCount(scanner) != rpcs;
+                    if (fetched) {
+                        stats.recordLatency(latency);
+                    }
+                    long bytes = resultSize(r);
+                    throttle.onSuccess(fetched ? latency : SHARED_LATENCY, bytes);
+                    reporter.incrCounter(CorruptRowsMR.Counters.TOTAL_ROWS, 1);
+                    resumeRow = r.getRow();
+                    inclusive = false;
+                    onSuccess(resumeRow, r, SHARED_LATENCY, bytes);
+                    rowDone(resumeRow);
+                }
+            } finally {
+                if (scanner != null) {
+                    scanner.close();
+                }
+            }
+            if (caching > 1) {
+                caching = caching / 2;
+                if (traceCells) {
+                    LOG.info("scan failed after row {}, retrying with caching {}",
+                            Bytes.toStringBinary(resumeRow), caching, failure);
+                }
+                continue;
+            }
+            byte[] failedRow;
+            byte[] rangeStart = inclusive ? resumeRow : Checkpoints.after(resumeRow);
+            try {
+                failedRow = nextRowKey(t, resumeRow, inclusive, endRow);
+            } catch (IOException e) {
+                byte[] rangeEnd = unreadableRangeEnd(t, rangeStart, endRow);
+                recordUnreadableRange(rangeStart, rangeEnd, e);
+                if (Bytes.equals(rangeEnd, endRow)) {
+                    return;
+                }
+                resumeRow = rangeEnd;
+                inclusive = true;
+                caching = fullCaching;
+                continue;
+            }
+            if (failedRow == null) {
+                // the full scan fails, but the key-only scan finds no more rows, so we can't isolate the failing row
+                recordUnreadableRange(rangeStart, endRow, failure);
+                return;
+            }
+            reporter.incrCounter(CorruptRowsMR.Counters.TOTAL_ROWS, 1);
+            verifyRow(t, failedRow);
+            rowDone(failedRow);
+            resumeRow = failedRow;
+            inclusive = false;
+            caching = fullCaching;
+        }
+    }
+
+    private static long rpcCount(ResultScanner scanner) {
+        ScanMetrics metrics = scanner.getScanMetrics();
+        return metrics == null ? 0 : metrics.countOfRPCcalls.get();
+    }
+
+    private void recordUnreadableRange(byte[] rangeStart, byte[] rangeEnd, IOException e) throws IOException {
+        LOG.warn("unable to read the rows in [{}, {})", Bytes.toStringBinary(rangeStart),
+                Bytes.toStringBinary(rangeEnd), e);
+        reporter.incrCounter(CorruptRowsMR.Counters.UNREADABLE_RANGES, 1);
+        // the start of the range goes to the row key column, so the tools reading the output can use it
+        recordFailure(rangeStart, "UnreadableKeyRange, message: the rows until "
+                + Bytes.toStringBinary(rangeEnd) + " can not be read: " + failureMessage(e));
+    }
+
+    private Scan newScan(byte[] startRow, boolean inclusive, byte[] endRow) throws IOException {
+        Scan scan = new Scan().withStartRow(startRow, inclusive).setCacheBlocks(false);
+        if (endRow.length > 0) {
+            scan.withStopRow(endRow);
+        }
+        if (mobAware) {
+            scan.setAttribute(MobConstants.MOB_SCAN_RAW, MOB_SCAN_RAW_VALUE);
+        }
+        if (since > 0) {
+            scan.setTimeRange(since, HConstants.LATEST_TIMESTAMP);
+        }
+        return scan;
+    }
+
+    /**
+     * @return the first row key after (or from, if inclusive) the given row, using a key-only scan
+     */
+    private byte[] nextRowKey(Table t, byte[] row, boolean inclusive, byte[] endRow) throws IOException {
+        Scan scan = newScan(row, inclusive, endRow).setCaching(1).setLimit(1);
+        scan.setFilter(new FilterList(FilterList.Operator.MUST_PASS_ALL, new FirstKeyOnlyFilter(), new KeyOnlyFilter()));
+        // we never want to resolve the MOB values here
+        scan.setAttribute(MobConstants.MOB_SCAN_RAW, MOB_SCAN_RAW_VALUE);
+        try (ResultScanner scanner = t.getScanner(scan)) {
+            Result r = scanner.next();
+            return r == null ? null : r.getRow();
+        }
+    }
+
+    /**
+     * Bisecting the [row, endRow) key range, looking for the lowest key where the key-only scan works again,
+     * with at most MAX_BISECT_STEPS scans. As the scan fails when it starts in an unreadable block, the result is
+     * at most the first key after the unreadable blocks.
+     *
+     * @return the end (exclusive) of the unreadable key range starting at row, or endRow if no readable key was found
+     */
+    private byte[] unreadableRangeEnd(Table t, byte[] row, byte[] endRow) {
+        byte[] low = row;
+        byte[] high = endRow;
+        for (int step = 0; step < MAX_BISECT_STEPS; step++) {
+            byte[][] keys = MRUtil.splitKeyRange(low, high, 2);
+            if (keys.length < 3) {
+                break;
+            }
+            try {
+                nextRowKey(t, keys[1], true, endRow);
+                high = keys[1];
+            } catch (IOException e) {
+                low = keys[1];
+            }
+            reporter.progress();
+        }
+        return high;
+    }
+
+    private void flushBatch() throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (maxInFlight > 0) {
+            submitAsync(batch);
+        } else {
+            verifyBatch(initOrGetTable(), batch);
+        }
+        batch.clear();
+    }
+
+    /**
+     * sending the GETs using the async client. We block only when there are already too many GETs in flight,
+     * and while waiting we process the completed ones. The results are always processed on the verifier thread,
+     * as the output collector and the reporter are not thread safe.
+     */
+    private void submitAsync(List<byte[]> rowKeys) throws IOException {
+        while (inFlight > 0 && inFlight + rowKeys.size() > maxInFlight) {
+            processCompleted(takeCompleted());
+        }
+        List<Get> gets = new ArrayList<>(rowKeys.size());
+        for (byte[] rowKey : rowKeys) {
+            gets.add(newGet(rowKey));
+        }
+        throttle.acquire(rowKeys.size());
+        final long submitNanos = System.nanoTime();
+        // only touched on the verifier thread, when the outcomes are processed
+        final int[] pending = rowKeys.size() > 1 ? new int[]{rowKeys.size()} : null;
+        List<CompletableFuture<Result>> futures = initOrGetAsyncTable().get(gets);
+        for (int i = 0; i < futures.size(); i++) {
+            final byte[] rowKey = rowKeys.get(i);
+            inFlight++;
+            futures.get(i).whenComplete((r, e) -> completed.add(new AsyncOutcome(rowKey, submitNanos, pending, r, e)));
+        }
+        AsyncOutcome outcome;
+        while ((outcome = completed.poll()) != null) {
+            processCompleted(outcome);
+        }
+    }
+
+    private AsyncOutcome takeCompleted() throws IOException {
+        try {
+            AsyncOutcome outcome;
+            while ((outcome = completed.poll(1, TimeUnit.SECONDS)) == null) {
+                // the GETs can take long (e.g. retries), we don't want the task to be killed meanwhile
+                reporter.progress();
+            }
+            return outcome;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for async GETs");
+        }
+    }
+
+    private void processCompleted(AsyncOutcome outcome) throws IOException {
+        inFlight--;
+        long latency = outcome.completeNanos - outcome.submitNanos;
+        boolean shared = outcome.pending != null;
+        if (shared && --outcome.pending[0] == 0) {
+            // we can't tell how long each row took, the latency of the multi-get is recorded with its last row
+            stats.recordLatency(latency);
+        }
+        if (outcome.error != null) {
+            Throwable error = unwrap(outcome.error);
+            throttle.onError(error);
+            onFailure(outcome.rowKey, error);
+        } else {
+            long bytes = resultSize(outcome.result);
+            throttle.onSuccess(latency, bytes);
+            onSuccess(outcome.rowKey, outcome.result, shared ? SHARED_LATENCY : latency, bytes);
+        }
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        while ((e instanceof CompletionException || e instanceof ExecutionException) && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e;
+    }
+
+    private void drainAsync() throws IOException {
+        while (inFlight > 0) {
+            processCompleted(takeCompleted());
+        }
+    }
+
+    /**
+     * fetching all the rows with a single multi-get. If the multi-get fails, then we split the batch
+     * into two halves and verify them separately, until we isolate the failing rows one-by-one
+     */
+    private void verifyBatch(Table t, List<byte[]> rowKeys) throws IOException {
+        if (rowKeys.size() == 1) {
+            verifyRow(t, rowKeys.get(0));
+            return;
+        }
+        List<Get> gets = new ArrayList<>(rowKeys.size());
+        for (byte[] rowKey : rowKeys) {
+            gets.add(newGet(rowKey));
+        }
+        Result[] results;
+        throttle.acquire(rowKeys.size());
+        long start = System.nanoTime();
+        try {
+            results = t.get(gets);
+        } catch (Exception e) {
+            throttle.onError(e);
+            if (traceCells) {
+                LOG.info("multi-get failed for {} rows, bisecting the batch", rowKeys.size(), e);
+            }
+            int half = rowKeys.size() / 2;
+            verifyBatch(t, rowKeys.subList(0, half));
+            verifyBatch(t, rowKeys.subList(half, rowKeys.size()));
+            return;
+        }
+        // we can't tell how long each row took, so the latency of the multi-get is recorded only once
+        long latency = System.nanoTime() - start;
+        stats.recordLatency(latency);
+        long[] sizes = new long[results.length];
+        long bytes = 0;
+        for (int i = 0; i < results.length; i++) {
+            sizes[i] = resultSize(results[i]);
+            bytes += sizes[i];
+        }
+        throttle.onSuccess(latency, bytes);
+        for (int i = 0; i < results.length; i++) {
+            onSuccess(rowKeys.get(i), results[i], SHARED_LATENCY, sizes[i]);
+        }
+    }
+
+    private void verifyRow(Table t, byte[] rowKey) throws IOException {
+        Result r;
+        throttle.acquire(1);
+        long start = System.nanoTime();
+        try {
+            r = t.get(newGet(rowKey));
+        } catch (Exception e) {
+            throttle.onError(e);
+            onFailure(rowKey, e);
+            return;
+        }
+        long latency = System.nanoTime() - start;
+        long bytes = resultSize(r);
+        throttle.onSuccess(latency, bytes);
+        onSuccess(rowKey, r, latency, bytes);
+    }
+
+    /**
+     * @return the size of the row, counting the row key, family, qualifier and value of each cell
+     */
+    static long resultSize(Result r) {
+        long size = 0;
+        if (r != null && r.rawCells() != null) {
+            for (Cell cell : r.rawCells()) {
+                size += cell.getRowLength() + cell.getFamilyLength() + cell.getQualifierLength() + cell.getValueLength();
+            }
+        }
+        return size;
+    }
+
+    private void onSuccess(byte[] rowKey, Result r, long latencyNanos, long bytes) throws IOException {
+        if (latencyNanos == SHARED_LATENCY) {
+            stats.recordSize(bytes);
+        } else {
+            stats.record(rowKey, latencyNanos, r == null ? 0 : r.size(), bytes);
+        }
+        if (mobAware) {
+            String failure = initOrGetMobFileChecker().check(r, reporter);
+            if (failure != null) {
+                recordFailure(rowKey, failure);
+                return;
+            }
+        }
+        reporter.incrCounter(CorruptRowsMR.Counters.SUCCESS_ROWS, 1);
+        if (traceCells && r != null && r.rawCells() != null) {
+            LOG.info("------- row: {}, number of cells: {}", Bytes.toStringBinary(rowKey), r.size());
+            for (Cell cell : r.rawCells()) {
+                LOG.info("Cell: {} - value: {}",
+                        cell.toString(),
+                        Bytes.toStringBinary(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength()));
+            }
+        }
+    }
+
+    private void onFailure(byte[] rowKey, Throwable e) throws IOException {
+        if (traceCells) {
+            LOG.error("exception with type: " + e.getClass().getSimpleName() + " and message: " + e.getMessage(), e);
+        }
+        recordFailure(rowKey, failureMessage(e));
+    }
+
+    private void recordFailure(byte[] rowKey, String message) throws IOException {
+        reporter.incrCounter(CorruptRowsMR.Counters.FAILED_ROWS, 1);
+        String row = Bytes.toStringBinary(rowKey);
+        if (aggregate) {
+            // the reducer groups the rows by the signature of the failure
+            outputKey.set(FailureIndex.signature(message));
+            outputValue.set(row);
+        } else {
+            // we print rowKey, exceptionClass and first line of exception message
+            outputKey.set(row);
+            outputValue.set(message);
+        }
+        outputCollector.collect(outputKey, outputValue);
+        if (checkpoints != null) {
+            checkpoints.addFailure(row, message);
+        }
+    }
+
+    /**
+     * writing the stats as a side-effect file of the task, so it is moved into the output dir only if the
+     * task attempt succeeds
+     */
+    private void writeStats() throws IOException {
+        Path workDir = FileOutputFormat.getWorkOutputPath(jobConf);
+        if (workDir == null || splitStart == null) {
+            return;
+        }
+        Path file = new Path(new Path(workDir, LatencyStats.DIR_NAME), FileOutputFormat.getUniqueName(jobConf, "stats"));
+        stats.write(jobConf, file, splitStart, splitEnd);
+    }
+
+    static String failureMessage(Throwable e) {
+        return FAILURE_PREFIX.get(e.getClass()).concat(firstLine(e.getMessage()));
+    }
+
+    /**
+     * @return the message up to the first line break, or "n/a" if the message is blank
+     */
+    static String firstLine(String message) {
+        if (message == null) {
+            return "n/a";
+        }
+        int end = -1;
+        boolean blank = true;
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if ((c == '\n' || c == '\r') && end < 0) {
+                end = i;
+            }
+            if (c > ' ') {
+                blank = false;
+                if (end >= 0) {
+                    break;
+                }
+            }
+        }
+        if (blank) {
+            return "n/a";
+        }
+        return end < 0 ? message : message.substring(0, end);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBatch();
+            drainAsync();
+            if (checkpoints != null && !splitFinished && lastRow != null) {
+                // the split was not finished, but all the rows passed to the verifier are verified
+                checkpoints.write(Checkpoints.after(lastRow));
+            }
+            if (throttle.isEnabled()) {
+                reporter.incrCounter(CorruptRowsMR.Counters.THROTTLED_MILLIS, throttle.getThrottledMillis());
+                reporter.incrCounter(CorruptRowsMR.Counters.THROTTLE_BACKOFFS, throttle.getBackoffs());
+            }
+            // summing up the rates of the mappers would be meaningless, the driver computes the rate from these
+            reporter.incrCounter(CorruptRowsMR.Counters.ACTIVE_MILLIS,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - createdNanos));
+            if (stats.getRows() > 0) {
+                stats.publish(reporter);
+                writeStats();
+            }
+        } finally {
+            if (table != null) {
+                table.close();
+            }
+            if (connection != null && ownConnection) {
+                CorruptRowsMR.releaseConnection(connection);
+            }
+            if (asyncConnection != null && ownAsyncConnection) {
+                asyncConnection.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,750 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.symat;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapRunnable;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.RunningJob;
+import org.apache.hadoop.mapred.TextOutputFormat;
+import org.apache.hadoop.util.Progressable;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * this tool compares two tables (possibly on different clusters) and collects the row keys
+ * where the content of the tables differs
+ *
+ * The key range of each region of the source table is cut into leaves, and a hash is computed for each leaf
+ * in both tables with a single scan per region. The hashes are computed next to the data, by a map-only job on
+ * each cluster (one mapper per source region), and only the hashes are sent back to the tool. The hashes form
+ * a tree (root, regions, leaves), which is compared top-down: only the leaves with different hashes are scanned
+ * again by the tool, and compared row-by-row. By default only the keys, timestamps and value lengths of the
+ * cells are read (the values stay on the RegionServers). In local mode the hashes are computed by the tool itself,
+ * reading every row of both tables, so it costs as much as a full compare (only for small tables).
+ * The output contains one line for each different row, in the format accepted by CopyRow.
+ */
+public class TableDiff extends Configured implements Tool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TableDiff.class);
+
+    static final String TABLE_KEY = "tableDiff.table";
+    static final String LEAVES_FILE_KEY = "tableDiff.leavesFile";
+    static final String HASH_VALUES_KEY = "tableDiff.hashValues";
+    static final String SCAN_CACHING_KEY = "tableDiff.scanCaching";
+    private static final String LEAVES_FILE_NAME = "_leaves";
+
+    private enum Counters {
+        ROWS,
+    }
+
+    /**
+     * the leaf hashes of a source region in both tables
+     */
+    static class RegionHashes {
+        final byte[][] bounds;
+        final byte[][] sourceLeaves;
+        final byte[][] targetLeaves;
+
+        RegionHashes(byte[][] bounds, byte[][] sourceLeaves, byte[][] targetLeaves) {
+            this.bounds = bounds;
+            this.sourceLeaves = sourceLeaves;
+            this.targetLeaves = targetLeaves;
+        }
+
+        boolean differs() {
+            return !Arrays.equals(combine(sourceLeaves), combine(targetLeaves));
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not supported", e);
+        }
+    }
+
+    /**
+     * @return the hash of the given hashes, this is the hash of the parent node in the tree
+     */
+    static byte[] combine(byte[][] hashes) {
+        MessageDigest digest = newDigest();
+        for (byte[] hash : hashes) {
+            digest.update(hash);
+        }
+        return digest.digest();
+    }
+
+    /**
+     * In key-only mode the values are replaced by their length on the RegionServer side. The scan returns
+     * whole rows, hashLeaves enables the partial results on it.
+     */
+    static Scan newScan(byte[] startRow, byte[] stopRow, boolean hashValues, int caching) {
+        Scan scan = new Scan()
+                .withStartRow(startRow)
+                .setCaching(caching)
+                .setCacheBlocks(false);
+        if (stopRow.length > 0) {
+            scan.withStopRow(stopRow);
+        }
+        if (!hashValues) {
+            scan.setFilter(new KeyOnlyFilter(true));
+        }
+        return scan;
+    }
+
+    /**
+     * hashing a field after its length, so the boundary between two fields (e.g. the row and the family) can't
+     * move without changing the hash
+     */
+    private static void updateField(MessageDigest digest, byte[] length, byte[] array, int offset, int fieldLength) {
+        Bytes.putInt(length, 0, fieldLength);
+        digest.update(length);
+        digest.update(array, offset, fieldLength);
+    }
+
+    /**
+     * scanning the [bounds[0], bounds[n]) key range of the table once and computing the hash of each
+     * [bounds[i], bounds[i + 1]) leaf. The scanner returns partial rows, so the memory used doesn't depend on
+     * the width of the rows.
+     */
+    static byte[][] hashLeaves(Table table, byte[][] bounds, boolean hashValues, int caching, AtomicLong rows,
+                               Progressable progress) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] timestamp = new byte[Bytes.SIZEOF_LONG];
+        byte[] length = new byte[Bytes.SIZEOF_INT];
+        byte[][] leaves = new byte[bounds.length - 1][];
+        int leaf = 0;
+        Scan scan = newScan(bounds[0], bounds[bounds.length - 1], hashValues, caching)
+                .setBatch(caching)
+                .setAllowPartialResults(true);
+        try (ResultScanner scanner = table.getScanner(scan)) {
+            byte[] currentRow = null;
+            for (Result r = scanner.next(); r != null; r = scanner.next()) {
+                progress.progress();
+                // the last bound can be empty (end of the table), but the rows never reach it
+                while (leaf < leaves.length - 1 && Bytes.compareTo(r.getRow(), bounds[leaf + 1]) >= 0) {
+                    leaves[leaf++] = digest.digest();
+                }
+                if (currentRow == null || !Bytes.equals(currentRow, r.getRow())) {
+                    currentRow = r.getRow();
+                    rows.incrementAndGet();
+                }
+                for (Cell cell : r.rawCells()) {
+                    updateField(digest, length, cell.getRowArray(), cell.getRowOffset(), cell.getRowLength());
+                    updateField(digest, length, cell.getFamilyArray(), cell.getFamilyOffset(), cell.getFamilyLength());
+                    updateField(digest, length, cell.getQualifierArray(), cell.getQualifierOffset(),
+                            cell.getQualifierLength());
+                    Bytes.putLong(timestamp, 0, cell.getTimestamp());
+                    digest.update(timestamp);
+                    digest.update(cell.getType().getCode());
+                    updateField(digest, length, cell.getValueArray(), cell.getValueOffset(), cell.getValueLength());
+                }
+            }
+        }
+        while (leaf < leaves.length) {
+            leaves[leaf++] = digest.digest();
+        }
+        return leaves;
+    }
+
+    /**
+     * the leaf bounds of a source region, the split of the hash jobs
+     */
+    static class LeafSplit implements InputSplit {
+        private byte[][] bounds;
+        private String host;
+
+        public LeafSplit() {
+        }
+
+        LeafSplit(byte[][] bounds, String host) {
+            this.bounds = bounds;
+            this.host = host;
+        }
+
+        @Override
+        public long getLength() {
+            return 0;
+        }
+
+        @Override
+        public String[] getLocations() {
+            return host.isEmpty() ? new String[0] : new String[]{host};
+        }
+
+        @Override
+        public void write(DataOutput out) throws IOException {
+            out.writeInt(bounds.length);
+            for (byte[] bound : bounds) {
+                Bytes.writeByteArray(out, bound);
+            }
+            out.writeUTF(host);
+        }
+
+        @Override
+        public void readFields(DataInput in) throws IOException {
+            bounds = new byte[in.readInt()][];
+            for (int i = 0; i < bounds.length; i++) {
+                bounds[i] = Bytes.readByteArray(in);
+            }
+            host = in.readUTF();
+        }
+    }
+
+    /**
+     * One split for each line of the leaves file (the leaf bounds of a source region), located on the server of
+     * the region of the hashed table containing the first bound. The rows are read by the LeafHashRunner,
+     * the record reader returns nothing.
+     */
+    static class LeafHashInputFormat implements InputFormat<ImmutableBytesWritable, Result> {
+
+        @Override
+        public InputSplit[] getSplits(JobConf job, int numSplits) throws IOException {
+            List<byte[][]> leafBounds = readLeaves(job, new Path(job.get(LEAVES_FILE_KEY)));
+            TreeMap<byte[], String> hosts = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+            try (Connection connection = ConnectionFactory.createConnection(job);
+                 RegionLocator locator = connection.getRegionLocator(TableName.valueOf(job.get(TABLE_KEY)))) {
+                for (HRegionLocation location : locator.getAllRegionLocations()) {
+                    hosts.put(location.getRegion().getStartKey(),
+                            location.getServerName() == null ? "" : location.getHostname());
+                }
+            }
+            List<InputSplit> splits = new ArrayList<>(leafBounds.size());
+            for (byte[][] bounds : leafBounds) {
+                Map.Entry<byte[], String> host = hosts.floorEntry(bounds[0]);
+                splits.add(new LeafSplit(bounds, host == null ? "" : host.getValue()));
+            }
+            return splits.toArray(new InputSplit[0]);
+        }
+
+        @Override
+        public RecordReader<ImmutableBytesWritable, Result> getRecordReader(InputSplit split, JobConf job,
+                                                                            Reporter reporter) {
+            return new CorruptRowsMR.ScannerRecordReader(null, null);
+        }
+    }
+
+    /**
+     * hashing the leaves of the split, the output is the first bound and the hex leaf hashes separated by commas
+     */
+    static class LeafHashRunner implements MapRunnable<ImmutableBytesWritable, Result, Text, Text> {
+        private JobConf jobConf;
+
+        @Override
+        public void configure(JobConf jobConf) {
+            this.jobConf = jobConf;
+        }
+
+        @Override
+        public void run(RecordReader<ImmutableBytesWritable, Result> input, OutputCollector<Text, Text> output,
+                        Reporter reporter) throws IOException {
+            byte[][] bounds = ((LeafSplit) reporter.getInputSplit()).bounds;
+            AtomicLong rows = new AtomicLong();
+            try (Connection connection = ConnectionFactory.createConnection(HBaseConfiguration.create(jobConf));
+                 Table table = connection.getTable(TableName.valueOf(jobConf.get(TABLE_KEY)))) {
+                byte[][] leaves = hashLeaves(table, bounds, jobConf.getBoolean(HASH_VALUES_KEY, false),
+                        jobConf.getInt(SCAN_CACHING_KEY, 1000), rows, reporter);
+                StringBuilder hashes = new StringBuilder();
+                for (byte[] leaf : leaves) {
+                    hashes.append(hashes.length() == 0 ? "" : ",").append(Bytes.toHex(leaf));
+                }
+                output.collect(new Text(Bytes.toStringBinary(bounds[0])), new Text(hashes.toString()));
+            } finally {
+                reporter.incrCounter(Counters.ROWS, rows.get());
+            }
+        }
+    }
+
+    /**
+     * writing the leaf bounds of each source region into a line, as tab separated row key byte strings
+     */
+    static void writeLeaves(Configuration conf, Path file, List<byte[][]> leafBounds) throws IOException {
+        FileSystem fs = file.getFileSystem(conf);
+        try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(fs.create(file, true), StandardCharsets.UTF_8))) {
+            for (byte[][] bounds : leafBounds) {
+                for (int i = 0; i < bounds.length; i++) {
+                    out.write((i == 0 ? "" : "\t") + Bytes.toStringBinary(bounds[i]));
+                }
+                out.newLine();
+            }
+        }
+    }
+
+    static List<byte[][]> readLeaves(Configuration conf, Path file) throws IOException {
+        FileSystem fs = file.getFileSystem(conf);
+        List<byte[][]> leafBounds = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(fs.open(file), StandardCharsets.UTF_8))) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                String[] parts = line.split("\t", -1);
+                byte[][] bounds = new byte[parts.length][];
+                for (int i = 0; i < parts.length; i++) {
+                    bounds[i] = Bytes.toBytesBinary(parts[i]);
+                }
+                leafBounds.add(bounds);
+            }
+        }
+        return leafBounds;
+    }
+
+    /**
+     * @return the leaf hashes written by a hash job, by the first bound of the region
+     */
+    private static Map<String, byte[][]> readHashes(Configuration conf, Path folder) throws IOException {
+        FileSystem fs = folder.getFileSystem(conf);
+        Map<String, byte[][]> hashes = new HashMap<>();
+        for (FileStatus file : fs.listStatus(folder)) {
+            String name = file.getPath().getName();
+            if (!file.isFile() || name.startsWith("_") || name.startsWith(".")) {
+                continue;
+            }
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(fs.open(file.getPath()), StandardCharsets.UTF_8))) {
+                for (String line = in.readLine(); line != null; line = in.readLine()) {
+                    int tab = line.indexOf('\t');
+                    String[] hex = line.substring(tab + 1).split(",");
+                    byte[][] leaves = new byte[hex.length][];
+                    for (int i = 0; i < hex.length; i++) {
+                        leaves[i] = Bytes.fromHex(hex[i]);
+                    }
+                    hashes.put(line.substring(0, tab), leaves);
+                }
+            }
+        }
+        return hashes;
+    }
+
+    private static boolean sameRow(Result a, Result b) {
+        Cell[] cellsA = a.rawCells();
+        Cell[] cellsB = b.rawCells();
+        if (cellsA.length != cellsB.length) {
+            return false;
+        }
+        for (int i = 0; i < cellsA.length; i++) {
+            if (!CellUtil.equals(cellsA[i], cellsB[i]) || !CellUtil.matchingValue(cellsA[i], cellsB[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * the cell lines start with a tab (an empty row key column): Bytes.toStringBinary escapes tabs, so a row key
+     * line never starts with one
+     */
+    private static void printCells(List<String> lines, String side, Result r) {
+        for (Cell cell : r.rawCells()) {
+            lines.add("\t" + side + "\t" + cell + "\t"
+                    + Bytes.toStringBinary(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength()));
+        }
+    }
+
+    /**
+     * comparing the rows of the [startRow, stopRow) key range of the two tables
+     * @return the output lines of the different rows
+     */
+    static List<String> diffRange(Table source, Table target, byte[] startRow, byte[] stopRow, boolean hashValues,
+                                  boolean printCells, int caching) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (ResultScanner sourceScanner = source.getScanner(newScan(startRow, stopRow, hashValues, caching));
+             ResultScanner targetScanner = target.getScanner(newScan(startRow, stopRow, hashValues, caching))) {
+            Result s = sourceScanner.next();
+            Result t = targetScanner.next();
+            while (s != null || t != null) {
+                int cmp = s == null ? 1 : t == null ? -1 : Bytes.compareTo(s.getRow(), t.getRow());
+                if (cmp < 0) {
+                    lines.add(Bytes.toStringBinary(s.getRow()) + "\tmissing from the target table");
+                    if (printCells) {
+                        printCells(lines, "source", s);
+                    }
+                    s = sourceScanner.next();
+                } else if (cmp > 0) {
+                    lines.add(Bytes.toStringBinary(t.getRow()) + "\tmissing from the source table");
+                    if (printCells) {
+                        printCells(lines, "target", t);
+                    }
+                    t = targetScanner.next();
+                } else {
+                    if (!sameRow(s, t)) {
+                        lines.add(Bytes.toStringBinary(s.getRow()) + "\tdifferent cells (source: "
+                                + s.size() + " cells, target: " + t.size() + " cells)");
+                        if (printCells) {
+                            printCells(lines, "source", s);
+                            printCells(lines, "target", t);
+                        }
+                    }
+                    s = sourceScanner.next();
+                    t = targetScanner.next();
+                }
+            }
+        }
+        return lines;
+    }
+
+    private static void printUsageAndDie() {
+        System.err.println("usage: ");
+        System.err.println("  export HBASE_CLASSPATH=./symat-hbase-tools-<version>.jar");
+        System.err.println("  hbase org.apache.symat.TableDiff <options> \n");
+        System.err.println("options:");
+        System.err.println("    --sourceTable <ns:table>         : source table (mandatory)");
+        System.err.println("    --targetTable <ns:table>         : target table (default: same as the source table)");
+        System.err.println("    --sourceConf <hbase-site.xml>    : extra config file to connect to the source cluster (default: none)");
+        System.err.println("    --targetConf <hbase-site.xml>    : extra config file to connect to the target cluster (default: none)");
+        System.err.println("    --leavesPerRegion <n>            : number of leaf key ranges per source region (default:16)");
+        System.err.println("    --hashValues <true|false>        : compare the cell values too, not only keys, timestamps and value lengths (default:false)");
+        System.err.println("    --printCells <true|false>        : print the cells of the different rows too (default:false)");
+        System.err.println("    --scanCaching <n>                : number of rows fetched per scanner RPC (default:1000)");
+        System.err.println("    --threads <n>                    : number of leaves compared (and regions hashed in local mode) in parallel (default:8)");
+        System.err.println("    --output <file>                  : where to write the results (default: standard output)");
+        System.err.println("    --workDir <folder>               : temp folder for the leaf hashes, reachable from both clusters (default: /tmp/tablediff-work)");
+        System.err.println("    --local <true|false>             : hash the tables in the tool instead of an MR job on each cluster, for small tables (default:false)");
+        System.exit(1);
+    }
+
+    @Override
+    public int run(final String[] args) throws Exception {
+        String sourceTable = "";
+        String targetTable = "";
+        String sourceConfFile = "";
+        String targetConfFile = "";
+        int leavesPerRegion = 16;
+        boolean hashValues = false;
+        boolean printCells = false;
+        int scanCaching = 1000;
+        int threads = 8;
+        String output = "";
+        String workDir = "/tmp/tablediff-work";
+        boolean local = false;
+        if (args.length % 2 != 0) {
+            printUsageAndDie();
+        }
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--sourceTable")) {
+                sourceTable = args[++i];
+            } else if (args[i].equals("--targetTable")) {
+                targetTable = args[++i];
+            } else if (args[i].equals("--sourceConf")) {
+                sourceConfFile = args[++i];
+            } else if (args[i].equals("--targetConf")) {
+                targetConfFile = args[++i];
+            } else if (args[i].equals("--leavesPerRegion")) {
+                leavesPerRegion = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--hashValues")) {
+                hashValues = Boolean.parseBoolean(args[++i]);
+            } else if (args[i].equals("--printCells")) {
+                printCells = Boolean.parseBoolean(args[++i]);
+            } else if (args[i].equals("--scanCaching")) {
+                scanCaching = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--output")) {
+                output = args[++i];
+            } else if (args[i].equals("--workDir")) {
+                workDir = args[++i];
+            } else if (args[i].equals("--local")) {
+                local = Boolean.parseBoolean(args[++i]);
+            } else {
+                printUsageAndDie();
+            }
+        }
+        if (sourceTable.isEmpty()) {
+            System.err.println("missing parameter: --sourceTable");
+            printUsageAndDie();
+        }
+        if (targetTable.isEmpty()) {
+            targetTable = sourceTable;
+        }
+        if (sourceTable.equals(targetTable) && sourceConfFile.equals(targetConfFile)) {
+            System.err.println("invalid parameters: the source and the target are the same");
+            printUsageAndDie();
+        }
+        if (leavesPerRegion < 1 || scanCaching < 1 || threads < 1) {
+            System.err.println("invalid parameter: --leavesPerRegion, --scanCaching and --threads must be positive");
+            printUsageAndDie();
+        }
+
+        Configuration sourceConf = new Configuration(getConf());
+        if (!sourceConfFile.isEmpty()) {
+            sourceConf.addResource(new Path(sourceConfFile));
+        }
+        Configuration targetConf = new Configuration(getConf());
+        if (!targetConfFile.isEmpty()) {
+            targetConf.addResource(new Path(targetConfFile));
+        }
+
+        long start = System.currentTimeMillis();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (Connection sourceConnection = ConnectionFactory.createConnection(sourceConf);
+             Connection targetConnection = ConnectionFactory.createConnection(targetConf);
+             PrintStream out = CorruptHFiles.openOutput(getConf(), output)) {
+            TableName sourceName = TableName.valueOf(sourceTable);
+            TableName targetName = TableName.valueOf(targetTable);
+            // the same leaves are hashed in both tables, cut from the regions of the source table
+            List<byte[][]> leafBounds = new ArrayList<>();
+            try (RegionLocator locator = sourceConnection.getRegionLocator(sourceName);
+                 Table source = sourceConnection.getTable(sourceName)) {
+                for (HRegionLocation region : locator.getAllRegionLocations()) {
+                    leafBounds.add(MRUtil.splitRegion(source, region.getRegion().getStartKey(),
+                            region.getRegion().getEndKey(), leavesPerRegion));
+                }
+            }
+            final boolean values = hashValues;
+            final boolean cells = printCells;
+            final int caching = scanCaching;
+            List<RegionHashes> hashes;
+            if (local) {
+                AtomicLong sourceRows = new AtomicLong();
+                AtomicLong targetRows = new AtomicLong();
+                List<Callable<RegionHashes>> hashTasks = new ArrayList<>(leafBounds.size());
+                for (byte[][] bounds : leafBounds) {
+                    hashTasks.add(() -> {
+                        try (Table source = sourceConnection.getTable(sourceName);
+                             Table target = targetConnection.getTable(targetName)) {
+                            return new RegionHashes(bounds,
+                                    hashLeaves(source, bounds, values, caching, sourceRows, () -> { }),
+                                    hashLeaves(target, bounds, values, caching, targetRows, () -> { }));
+                        }
+                    });
+                }
+                hashes = runAll(pool, hashTasks);
+                LOG.info("hashed {} source rows and {} target rows in {} ms",
+                        sourceRows.get(), targetRows.get(), System.currentTimeMillis() - start);
+            } else {
+                hashes = hashWithJobs(sourceConf, targetConf, sourceTable, targetTable, leafBounds, values, caching,
+                        new Path(workDir, UUID.randomUUID().toString()));
+                LOG.info("hashed {} regions in {} ms", hashes.size(), System.currentTimeMillis() - start);
+            }
+
+            // comparing the tree top-down: root, regions, leaves
+            byte[][] sourceRegions = new byte[hashes.size()][];
+            byte[][] targetRegions = new byte[hashes.size()][];
+            for (int i = 0; i < hashes.size(); i++) {
+                sourceRegions[i] = combine(hashes.get(i).sourceLeaves);
+                targetRegions[i] = combine(hashes.get(i).targetLeaves);
+            }
+            long differentRegions = 0;
+            List<Callable<List<String>>> diffTasks = new ArrayList<>();
+            if (!Arrays.equals(combine(sourceRegions), combine(targetRegions))) {
+                for (RegionHashes region : hashes) {
+                    if (!region.differs()) {
+                        continue;
+                    }
+                    differentRegions++;
+                    for (int leaf = 0; leaf < region.sourceLeaves.length; leaf++) {
+                        if (Arrays.equals(region.sourceLeaves[leaf], region.targetLeaves[leaf])) {
+                            continue;
+                        }
+                        byte[] leafStart = region.bounds[leaf];
+                        byte[] leafStop = region.bounds[leaf + 1];
+                        diffTasks.add(() -> {
+                            try (Table source = sourceConnection.getTable(sourceName);
+                                 Table target = targetConnection.getTable(targetName)) {
+                                return diffRange(source, target, leafStart, leafStop, values, cells, caching);
+                            }
+                        });
+                    }
+                }
+            }
+            long differentRows = 0;
+            for (List<String> lines : runAll(pool, diffTasks)) {
+                for (String line : lines) {
+                    if (!line.startsWith("\t")) {
+                        differentRows++;
+                    }
+                    out.println(line);
+                }
+            }
+            LOG.info("compared {} regions in {} ms, {} regions and {} leaves differ, found {} different rows",
+                    hashes.size(), System.currentTimeMillis() - start, differentRegions, diffTasks.size(), differentRows);
+        } finally {
+            pool.shutdownNow();
+        }
+        return 0;
+    }
+
+    /**
+     * Hashing the leaves of both tables with a map-only job on each cluster, the two jobs run in parallel. The
+     * leaf bounds are written into the work dir, which is read by both jobs, and the jobs write the leaf hashes
+     * into it, so it has to be reachable from both clusters (it is qualified with the file system of the tool).
+     * @return the leaf hashes of each region, in the order of the leaf bounds
+     */
+    private List<RegionHashes> hashWithJobs(Configuration sourceConf, Configuration targetConf, String sourceTable,
+                                            String targetTable, List<byte[][]> leafBounds, boolean hashValues,
+                                            int caching, Path workDir) throws IOException {
+        FileSystem fs = workDir.getFileSystem(getConf());
+        Path work = fs.makeQualified(workDir);
+        try {
+            Path leavesFile = new Path(work, LEAVES_FILE_NAME);
+            writeLeaves(getConf(), leavesFile, leafBounds);
+            JobConf sourceJob = hashJob(sourceConf, sourceTable, leavesFile, new Path(work, "source"), hashValues, caching);
+            JobConf targetJob = hashJob(targetConf, targetTable, leavesFile, new Path(work, "target"), hashValues, caching);
+            JobClient sourceClient = new JobClient(sourceJob);
+            JobClient targetClient = new JobClient(targetJob);
+            RunningJob sourceRun = null;
+            RunningJob targetRun = null;
+            try {
+                sourceRun = sourceClient.submitJob(sourceJob);
+                targetRun = targetClient.submitJob(targetJob);
+                LOG.info("hashing the tables with jobs {} (source) and {} (target)", sourceRun.getID(), targetRun.getID());
+                waitForJob(sourceRun);
+                waitForJob(targetRun);
+                LOG.info("hashed {} source rows and {} target rows", sourceRun.getCounters().getCounter(Counters.ROWS),
+                        targetRun.getCounters().getCounter(Counters.ROWS));
+            } finally {
+                // if one of the jobs failed, the other one is not needed either
+                for (RunningJob job : new RunningJob[]{sourceRun, targetRun}) {
+                    if (job != null && !job.isComplete()) {
+                        job.killJob();
+                    }
+                }
+                sourceClient.close();
+                targetClient.close();
+            }
+            Map<String, byte[][]> sourceHashes = readHashes(getConf(), new Path(work, "source"));
+            Map<String, byte[][]> targetHashes = readHashes(getConf(), new Path(work, "target"));
+            List<RegionHashes> hashes = new ArrayList<>(leafBounds.size());
+            for (byte[][] bounds : leafBounds) {
+                String region = Bytes.toStringBinary(bounds[0]);
+                byte[][] sourceLeaves = sourceHashes.get(region);
+                byte[][] targetLeaves = targetHashes.get(region);
+                if (sourceLeaves == null || targetLeaves == null) {
+                    throw new IOException("the hash jobs didn't write the hashes of the region starting at " + region);
+                }
+                hashes.add(new RegionHashes(bounds, sourceLeaves, targetLeaves));
+            }
+            return hashes;
+        } finally {
+            fs.delete(work, true);
+        }
+    }
+
+    private static JobConf hashJob(Configuration conf, String table, Path leavesFile, Path output, boolean hashValues,
+                                   int caching) {
+        JobConf jobConf = new JobConf(conf, TableDiff.class);
+        jobConf.setJobName("TableDiff hash " + table);
+        jobConf.setInputFormat(LeafHashInputFormat.class);
+        jobConf.setMapRunnerClass(LeafHashRunner.class);
+        jobConf.setNumReduceTasks(0);
+        // the rows would be read twice by the concurrent attempts
+        jobConf.setMapSpeculativeExecution(false);
+        jobConf.setOutputKeyClass(Text.class);
+        jobConf.setOutputValueClass(Text.class);
+        jobConf.setOutputFormat(TextOutputFormat.class);
+        FileOutputFormat.setOutputPath(jobConf, output);
+        jobConf.set(TABLE_KEY, table);
+        jobConf.set(LEAVES_FILE_KEY, leavesFile.toString());
+        jobConf.setBoolean(HASH_VALUES_KEY, hashValues);
+        jobConf.setInt(SCAN_CACHING_KEY, caching);
+        try {
+            MRUtil.addDependencyJars(jobConf);
+        } catch (IOException e) {
+            LOG.error("unable to add dependency jars", e);
+        }
+        try {
+            MRUtil.initCredentials(jobConf);
+        } catch (IOException ioe) {
+            LOG.error("unable to init credentials", ioe);
+        }
+        return jobConf;
+    }
+
+    private static void waitForJob(RunningJob job) throws IOException {
+        job.waitForCompletion();
+        if (!job.isSuccessful()) {
+            throw new IOException("hash job " + job.getID() + " failed: " + job.getFailureInfo());
+        }
+    }
+
+    private static <T> List<T> runAll(ExecutorService pool, List<Callable<T>> tasks) throws IOException {
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(pool.submit(task));
+        }
+        List<T> results = new ArrayList<>(tasks.size());
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                throw new IOException("unexpected error while comparing the tables", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while comparing the tables", e);
+            }
+        }
+        return results;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int errCode = ToolRunner.run(HBaseConfiguration.create(), new TableDiff(), args);
+        System.exit(errCode);
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.symat;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.io.hfile.HFileContextBuilder;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checking store files written to the local file system, before and after breaking them.
+ */
+public class CorruptHFilesTest {
+
+    private static final int ROWS = 1000;
+    private static final byte[] FAMILY = Bytes.toBytes("cf");
+    private static final byte[] QUALIFIER = Bytes.toBytes("q");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Configuration conf;
+    private FileSystem fs;
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        conf = HBaseConfiguration.create();
+        fs = FileSystem.getLocal(conf);
+        file = new Path(folder.getRoot().getAbsolutePath(), "0123456789abcdef0123456789abcdef");
+        // small blocks, so the file has many data blocks
+        try (HFile.Writer writer = HFile.getWriterFactory(conf, CacheConfig.DISABLED)
+                .withPath(fs, file)
+                .withFileContext(new HFileContextBuilder().withBlockSize(1024).build())
+                .create()) {
+            for (int i = 0; i < ROWS; i++) {
+                writer.append(new KeyValue(row(i), FAMILY, QUALIFIER, 1L, Bytes.toBytes("value-" + i)));
+            }
+        }
+    }
+
+    private static byte[] row(int i) {
+        return Bytes.toBytes(String.format("row-%06d", i));
+    }
+
+    private CorruptHFiles.FileCheck check() {
+        return CorruptHFiles.checkStoreFile(fs, new CorruptHFiles.StoreFileRef(file), conf);
+    }
+
+    /**
+     * rewriting the file with the given content, through the file system so its checksum file stays valid
+     */
+    private void rewrite(byte[] content) throws IOException {
+        fs.delete(file, false);
+        try (FSDataOutputStream out = fs.create(file, false)) {
+            out.write(content);
+        }
+    }
+
+    private byte[] content() throws IOException {
+        byte[] content = new byte[(int) fs.getFileStatus(file).getLen()];
+        try (FSDataInputStream in = fs.open(file)) {
+            in.readFully(0, content);
+        }
+        return content;
+    }
+
+    @Test
+    public void testHealthyFile() {
+        CorruptHFiles.FileCheck check = check();
+        assertFalse(String.valueOf(check.error), check.isCorrupt());
+        assertEquals(ROWS, check.entries);
+        assertArrayEquals(row(0), check.firstRow);
+        assertArrayEquals(row(ROWS - 1), check.lastRow);
+    }
+
+    @Test
+    public void testTruncatedFile() throws IOException {
+        byte[] content = content();
+        byte[] head = new byte[content.length / 2];
+        System.arraycopy(content, 0, head, 0, head.length);
+        rewrite(head);
+        CorruptHFiles.FileCheck check = check();
+        assertTrue(check.isCorrupt());
+        assertEquals(head.length, check.length);
+    }
+
+    @Test
+    public void testOverwrittenTrailer() throws IOException {
+        byte[] content = content();
+        for (int i = content.length - 64; i < content.length; i++) {
+            content[i] = 0;
+        }
+        rewrite(content);
+        assertTrue(check().isCorrupt());
+    }
+
+    @Test
+    public void testMissingFile() throws IOException {
+        fs.delete(file, false);
+        CorruptHFiles.FileCheck check = check();
+        assertTrue(check.isCorrupt());
+        assertNotNull(check.error);
+    }
+
+    @Test
+    public void testCollectStoreFiles() throws IOException {
+        // <table>/<region>/<family>/<file>, hidden files and folders are skipped
+        Path tableDir = new Path(folder.newFolder("table").getAbsolutePath());
+        Path familyDir = new Path(new Path(tableDir, "region1"), "cf");
+        fs.mkdirs(familyDir);
+        fs.rename(file, new Path(familyDir, file.getName()));
+        fs.mkdirs(new Path(tableDir, ".tmp"));
+        fs.create(new Path(tableDir, ".tableinfo.0000000001")).close();
+        List<CorruptHFiles.StoreFileRef> files = CorruptHFiles.collectStoreFiles(fs, tableDir, conf);
+        assertEquals(1, files.size());
+        assertEquals(file.getName(), files.get(0).resolve(fs).getName());
+    }
+}
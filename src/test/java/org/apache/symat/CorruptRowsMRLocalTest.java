@@ -0,0 +1,138 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.symat;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.util.ToolRunner;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Running CorruptRowsMR in local mode against a mini cluster.
+ */
+public class CorruptRowsMRLocalTest {
+
+    private static final HBaseTestingUtility UTIL = new HBaseTestingUtility();
+    private static final TableName TABLE = TableName.valueOf("local_resume");
+    private static final byte[] FAMILY = Bytes.toBytes("cf");
+    private static final int ROWS = 1000;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        UTIL.startMiniCluster();
+        byte[][] splitKeys = {row(250), row(500), row(750)};
+        try (Table table = UTIL.createTable(TABLE, new byte[][]{FAMILY}, splitKeys)) {
+            List<Put> puts = new ArrayList<>(ROWS);
+            for (int i = 0; i < ROWS; i++) {
+                puts.add(new Put(row(i)).addColumn(FAMILY, Bytes.toBytes("q"), Bytes.toBytes("value-" + i)));
+            }
+            table.put(puts);
+        }
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        UTIL.shutdownMiniCluster();
+    }
+
+    private static byte[] row(int i) {
+        return Bytes.toBytes(String.format("row-%04d", i));
+    }
+
+    private static int runLocal(Path output, String... extraArgs) throws Exception {
+        List<String> args = new ArrayList<>();
+        args.add("--table");
+        args.add(TABLE.getNameAsString());
+        args.add("--output");
+        args.add(output.toString());
+        args.add("--local");
+        args.add("true");
+        args.add("--threads");
+        args.add("2");
+        for (String arg : extraArgs) {
+            args.add(arg);
+        }
+        return ToolRunner.run(new Configuration(UTIL.getConfiguration()), new CorruptRowsMR(), args.toArray(new String[0]));
+    }
+
+    private static long counter(Path output, String name) throws IOException {
+        Path file = new Path(output, CorruptRowsMR.COUNTERS_FILE_NAME);
+        FileSystem fs = file.getFileSystem(UTIL.getConfiguration());
+        try (FSDataInputStream stream = fs.open(file);
+             BufferedReader in = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                String[] parts = line.split("\t");
+                if (parts[1].equals(name)) {
+                    return Long.parseLong(parts[2]);
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * The last region is verified again after resuming. Its task gets the same partition number as the first
+     * region had in the first run, so with a fixed job id it would overwrite the carried over checkpoint of the
+     * first region.
+     */
+    @Test
+    public void testResumeLocalRun() throws Exception {
+        Configuration conf = UTIL.getConfiguration();
+        Path first = UTIL.getDataTestDirOnTestFS("first");
+        assertEquals(0, runLocal(first));
+        assertEquals(ROWS, counter(first, "TOTAL_ROWS"));
+
+        Path firstCheckpoints = new Path(first, Checkpoints.DIR_NAME);
+        FileSystem fs = firstCheckpoints.getFileSystem(conf);
+        int deleted = 0;
+        for (Checkpoints.Segment segment : Checkpoints.read(conf, firstCheckpoints)) {
+            if (Bytes.equals(segment.start, row(750))) {
+                fs.delete(segment.path, false);
+                deleted++;
+            }
+        }
+        assertEquals(1, deleted);
+
+        Path second = UTIL.getDataTestDirOnTestFS("second");
+        assertEquals(0, runLocal(second, "--resume", first.toString()));
+        assertEquals(ROWS - 750, counter(second, "TOTAL_ROWS"));
+        List<byte[][]> verified = Checkpoints.verifiedRanges(Checkpoints.read(conf, new Path(second, Checkpoints.DIR_NAME)));
+        assertEquals(1, verified.size());
+        assertArrayEquals(new byte[0], verified.get(0)[0]);
+        assertArrayEquals(new byte[0], verified.get(0)[1]);
+    }
+}